@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses bulk build parameter strings of increasing length, up to the size
+ * of blobs pasted from scripts, comparing {@link ParameterParser} with the
+ * previous tokenizer and split approach.
+ *
+ * @author simon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkParamProcessorBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int params;
+
+    private String raw;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < params; i++) {
+            if (i > 0) {
+                sb.append('&');
+            }
+            sb.append("PARAM_").append(i).append('=').append("value-").append(i);
+            if (i % 10 == 0) {
+                sb.append("%26-Dopt=").append(i);
+            }
+        }
+        raw = sb.toString();
+    }
+
+    @Benchmark
+    public Map<String, String> getProjectParams() {
+        return new BulkParamProcessor(raw).getProjectParams();
+    }
+
+    @Benchmark
+    public ParameterParser parse() {
+        return ParameterParser.parse(raw);
+    }
+
+    @Benchmark
+    public Map<String, String> tokenizerAndSplit() {
+        StringTokenizer tokeniser = new StringTokenizer(raw, "&");
+        Map<String, String> values = new HashMap<String, String>(tokeniser.countTokens());
+        while (tokeniser.hasMoreTokens()) {
+            String[] split = tokeniser.nextToken().split("=");
+            if (split.length == 2) {
+                values.put(split[0], split[1]);
+            }
+        }
+        return values;
+    }
+}
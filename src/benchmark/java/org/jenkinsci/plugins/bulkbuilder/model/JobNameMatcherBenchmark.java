@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matches a user pattern against 100k synthetic job names, comparing the
+ * compiled {@link JobNameMatcher} with the previous rewrite-and-compile per
+ * job approach.
+ *
+ * @author simon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobNameMatcherBenchmark {
+
+    private static final int JOBS = 100000;
+
+    @Param({"svc-0042-build", "svc-01*", "*-deploy", "*team-3*", "svc-*1*-build"})
+    public String pattern;
+
+    private String[] names;
+
+    @Setup
+    public void setUp() {
+        String[] suffixes = {"build", "test", "deploy", "release"};
+        names = new String[JOBS];
+        for (int i = 0; i < JOBS; i++) {
+            names[i] = String.format("team-%d/svc-%04d-%s", i % 50, i % 10000, suffixes[i % suffixes.length]);
+        }
+    }
+
+    @Benchmark
+    public int regexPerJob() {
+        int matches = 0;
+        for (String name : names) {
+            String patternReg = pattern.replaceAll("\\*", "\\.\\*");
+            if (Pattern.matches(patternReg, name)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int compiledMatcher() {
+        JobNameMatcher matcher = JobNameMatcher.compile(pattern);
+        int matches = 0;
+        for (String name : names) {
+            if (matcher.matches(name, null)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.BooleanParameterDefinition;
+import hudson.model.ChoiceParameterDefinition;
+import hudson.model.FreeStyleProject;
+import hudson.model.Job;
+import hudson.model.ParameterDefinition;
+import hudson.model.Result;
+import hudson.model.StringParameterDefinition;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the {@link Selector}s and {@link ParameterPlan}s used by
+ * {@link Builder} over the jobs of a temporary Jenkins instance.
+ *
+ * The jobs are never built, so status terms all find jobs without a
+ * completed build in the {@link LastResultIndex}. Creating 100,000 jobs
+ * writes each one's configuration to disk, so setting up the largest
+ * instance takes several minutes; pass {@code -p jobs=1000,10000} to skip it.
+ *
+ * @author simon
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectionBenchmark {
+
+    private static final String[] SUFFIXES = {"build", "test", "deploy", "release"};
+
+    public static class JenkinsState extends JmhBenchmarkState {
+
+        @Param({"1000", "10000", "100000"})
+        public int jobs;
+
+        List<Job<?, ?>> candidates;
+
+        @Override
+        public void setup() throws Exception {
+            Jenkins jenkins = getJenkins();
+            candidates = new ArrayList<Job<?, ?>>(jobs);
+            for (int i = 0; i < jobs; i++) {
+                String name = String.format("svc-%05d-%s", i, SUFFIXES[i % SUFFIXES.length]);
+                candidates.add(jenkins.createProject(FreeStyleProject.class, name));
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class QueryState {
+
+        @Param({"*-deploy", "svc-0*"})
+        public String pattern;
+
+        /**
+         * Selects as a build of type {@link BuildType#UNSTABLE} with a
+         * pattern does
+         */
+        Selector buildType;
+
+        String query;
+
+        Selector parsed;
+
+        List<ParameterDefinition> definitions;
+
+        Map<String, String> userParams;
+
+        ParameterPlan plan;
+
+        @Setup
+        public void setUp() {
+            buildType = Selector.allOf(Arrays.asList(
+                    Selector.term("status", ">=", Result.UNSTABLE.toString()),
+                    Selector.term("name", "~", pattern)));
+
+            query = "status>=UNSTABLE and label=any and name~'" + pattern + "'";
+            parsed = Selector.parse(query);
+
+            definitions = new ArrayList<ParameterDefinition>();
+            definitions.add(new StringParameterDefinition("BRANCH", "master", null));
+            definitions.add(new BooleanParameterDefinition("CLEAN", false, null));
+            definitions.add(new ChoiceParameterDefinition("ENV", new String[]{"dev", "qa", "prod"}, null));
+            definitions.add(new StringParameterDefinition("VERSION", "1.0", null));
+
+            userParams = new HashMap<String, String>();
+            userParams.put("BRANCH", "release");
+            userParams.put("ENV", "qa");
+
+            plan = ParameterPlan.compile(definitions);
+        }
+    }
+
+    @Benchmark
+    public Selector parseQuery(QueryState query) {
+        return Selector.parse(query.query);
+    }
+
+    @Benchmark
+    public int buildTypeSelection(JenkinsState jenkins, QueryState query) {
+        return count(jenkins.candidates, query.buildType);
+    }
+
+    @Benchmark
+    public int querySelection(JenkinsState jenkins, QueryState query) {
+        return count(jenkins.candidates, query.parsed);
+    }
+
+    /**
+     * Applies the user's values to one plan compiled up front, once per
+     * selected job, to show what compiling for every job costs
+     */
+    @Benchmark
+    public int reusedPlanResolution(JenkinsState jenkins, QueryState query) {
+        int values = 0;
+        for (Job<?, ?> job : jenkins.candidates) {
+            if (query.buildType.apply(job)) {
+                values += query.plan.apply(query.userParams).size();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Compiles a plan for every selected job, as a parameterised bulk build
+     * does
+     */
+    @Benchmark
+    public int planResolution(JenkinsState jenkins, QueryState query) {
+        int values = 0;
+        for (Job<?, ?> job : jenkins.candidates) {
+            if (query.buildType.apply(job)) {
+                values += ParameterPlan.compile(query.definitions).apply(query.userParams).size();
+            }
+        }
+        return values;
+    }
+
+    private static int count(List<Job<?, ?>> candidates, Selector selector) {
+        int matches = 0;
+        for (Job<?, ?> job : candidates) {
+            if (selector.apply(job)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -25,21 +25,31 @@
 package org.jenkinsci.plugins.bulkbuilder;
 
 import hudson.Extension;
+import hudson.model.Api;
 import hudson.model.Hudson;
+import hudson.model.Job;
+import hudson.model.Result;
 import hudson.model.RootAction;
 import hudson.model.View;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.ServletException;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.bulkbuilder.model.*;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
+import org.kohsuke.stapler.interceptor.RequirePOST;
 
 /**
  * Manage bulk build/SCM poll for your jobs.
@@ -54,6 +64,27 @@ public class BulkBuilderAction implements RootAction {
     private static final Logger LOGGER = Logger
        .getLogger(BulkBuilderAction.class.getName());
 
+    /**
+     * Response header carrying the ID of the operation started by {@link #doBuild}
+     */
+    public static final String OPERATION_HEADER = "X-Bulk-Builder-Operation";
+
+    /**
+     * Response header carrying the number of builds removed by {@link #doCancel}
+     */
+    public static final String CANCELLED_HEADER = "X-Bulk-Builder-Cancelled";
+
+    /**
+     * Default and maximum page size of {@link #doPreview}
+     */
+    static final int PREVIEW_LIMIT = 1000;
+    static final int PREVIEW_MAX_LIMIT = 10000;
+
+    /**
+     * Number of preview lines written between flushes
+     */
+    private static final int PREVIEW_FLUSH_INTERVAL = 100;
+
     public final String getIconFileName() {
         return "/plugin/bulk-builder/icons/builder-32x32.png";
     }
@@ -101,53 +132,340 @@ public class BulkBuilderAction implements RootAction {
         BulkParamProcessor processor = new BulkParamProcessor(params);
         Map<String, String> projectParams = processor.getProjectParams();
 
+        boolean withParams = false;
         String paramBuild = req.getParameter("paramBuild");
-        if (paramBuild != null && !paramBuild.isEmpty() && !projectParams.isEmpty()) {
-            builder.setUserParams(projectParams);
+        if (paramBuild != null && !paramBuild.isEmpty()) {
+            if (!processor.getMalformed().isEmpty()) {
+                rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "Malformed parameters: " + processor.getMalformed());
+                return;
+            }
+            if (projectParams != null) {
+                builder.setUserParams(projectParams);
+                withParams = true;
+            }
         }
 
         String pattern = req.getParameter("pattern");
         if (pattern != null && !pattern.isEmpty()) {
             builder.setPattern(pattern);
+        }
+
+        String view = req.getParameter("view");
+        if (view != null && !view.isEmpty()) {
+            builder.setView(view);
+        }
+
+        String selectorBlock = req.getParameter("selectorBlock");
+        String selector = req.getParameter("selector");
+        if (selectorBlock != null && !selectorBlock.isEmpty()
+                && selector != null && !selector.trim().isEmpty()) {
+            try {
+                builder.setSelector(Selector.parse(selector));
+            } catch (IllegalArgumentException e) {
+                rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "Invalid selector: " + e.getMessage());
+                return;
+            }
+        }
+
+        String order = req.getParameter("order");
+        if (order != null && !order.isEmpty()) {
+            try {
+                builder.setOrder(BuildOrder.valueOf(order.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "Invalid order: " + order);
+                return;
+            }
+        }
+
+        String duplicates = req.getParameter("duplicates");
+        if (duplicates != null && !duplicates.isEmpty()) {
+            try {
+                builder.setDuplicatePolicy(DuplicatePolicy.valueOf(duplicates.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "Invalid duplicate policy: " + duplicates);
+                return;
+            }
+        }
+
+        String pruneDownstream = req.getParameter("pruneDownstream");
+        if (pruneDownstream != null && !pruneDownstream.isEmpty() && !"false".equals(pruneDownstream)) {
+            if (withParams) {
+                rsp.sendError(StaplerResponse.SC_BAD_REQUEST,
+                        "Downstream jobs cannot be left out of a parameterised build, they would not get its parameters");
+                return;
+            }
+            builder.setPruneDownstream(true);
+        }
+
+        String parallel = req.getParameter("parallel");
+        if (parallel != null) {
+            builder.setParallel(Boolean.parseBoolean(parallel));
+        }
+
+        String batchSize = req.getParameter("batchSize");
+        if (batchSize != null && !batchSize.isEmpty()) {
+            try {
+                builder.setBatchSize(Integer.parseInt(batchSize));
+            } catch (NumberFormatException e) {
+                rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "Invalid batch size: " + batchSize);
+                return;
+            }
+        }
+
+        String hold = req.getParameter("hold");
+        if (hold != null && !hold.isEmpty() && !"false".equals(hold)) {
+            builder.setHold(true);
+        }
+
+        String rateLimit = req.getParameter("rateLimit");
+        if (rateLimit != null && !rateLimit.isEmpty()) {
+            String burst = req.getParameter("burst");
+            try {
+                builder.setRateLimit(Double.parseDouble(req.getParameter("rate")),
+                        burst == null || burst.isEmpty() ? 1 : Integer.parseInt(burst));
+            } catch (RuntimeException e) {
+                rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "Invalid rate limit: " + e.getMessage());
+                return;
+            }
+        }
+
+        String waves = req.getParameter("waves");
+        if (waves != null && !waves.isEmpty()) {
+            try {
+                builder.setWaves(Integer.parseInt(req.getParameter("waveSize")),
+                        parseInt(req.getParameter("queueThreshold"), 0));
+                String canarySize = req.getParameter("canarySize");
+                if (canarySize != null && !canarySize.isEmpty()) {
+                    builder.setCanary(Integer.parseInt(canarySize),
+                            Double.parseDouble(req.getParameter("maxFailurePercent")));
+                }
+            } catch (RuntimeException e) {
+                rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "Invalid waves: " + e.getMessage());
+                return;
+            }
+        }
+
+        BulkOperation operation;
+        try {
+            operation = BulkOperationManager.get().submit(builder, type);
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.WARNING, "Too many bulk operations pending, rejecting request");
+            rsp.sendError(StaplerResponse.SC_SERVICE_UNAVAILABLE, "Too many bulk operations pending");
+            return;
+        }
+
+        if (pattern != null && !pattern.isEmpty()) {
             BuildHistory history = Hudson.getInstance().getPlugin(BuildHistory.class);
             history.add(new BuildHistoryItem(pattern));
         }
 
+        rsp.setHeader(OPERATION_HEADER, operation.getId());
+        rsp.forwardToPreviousPage(req);
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Stream the jobs a build would select, without scheduling anything.
+     *
+     * Accepts the same {@code build}, {@code pattern}, {@code view} and
+     * {@code selector} parameters as {@link #doBuild}. Matches are written
+     * one JSON object per line (NDJSON) as they are found, in full name
+     * order, up to {@code limit} per page. The last line holds the
+     * {@code cursor} to pass to fetch the next page, the full name of the
+     * last job written, or null once the selection is exhausted.
+     *
+     * @param req
+     * @param rsp
+     * @throws IOException
+     */
+    public final void doPreview(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        BuildType type;
+        int limit;
+
+        String cursor = req.getParameter("cursor");
+        if (cursor != null && cursor.isEmpty()) {
+            cursor = null;
+        }
+
+        try {
+            type = BuildType.valueOf(req.getParameter("build").toUpperCase());
+            String limitParam = req.getParameter("limit");
+            limit = limitParam == null || limitParam.isEmpty() ? PREVIEW_LIMIT : Integer.parseInt(limitParam);
+        } catch (RuntimeException e) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "Invalid preview request: " + e.getMessage());
+            return;
+        }
+
+        if (limit < 1 || limit > PREVIEW_MAX_LIMIT) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "Invalid limit");
+            return;
+        }
+
+        Builder builder = new Builder(BuildAction.IMMEDIATE_BUILD);
+
+        String pattern = req.getParameter("pattern");
+        if (pattern != null && !pattern.isEmpty()) {
+            builder.setPattern(pattern);
+        }
+
         String view = req.getParameter("view");
         if (view != null && !view.isEmpty()) {
             builder.setView(view);
         }
 
-        switch (type) {
-            case ABORTED:
-                builder.buildAborted();
-                break;
-            case ALL:
-                builder.buildAll();
-                break;
-            case FAILED:
-                builder.buildFailed();
-                break;
-            case FAILED_ONLY:
-                builder.buildFailedOnly();
-                break;
-            case NOT_BUILD_ONLY:
-                builder.buildNotBuildOnly();
-                break;
-            case NOT_BUILT:
-                builder.buildNotBuilt();
-                break;
-            case UNSTABLE:
-                builder.buildUnstable();
-                break;
-            case UNSTABLE_ONLY:
-                builder.buildUnstableOnly();
-                break;
+        String selector = req.getParameter("selector");
+        if (selector != null && !selector.trim().isEmpty()) {
+            try {
+                builder.setSelector(Selector.parse(selector));
+            } catch (IllegalArgumentException e) {
+                rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "Invalid selector: " + e.getMessage());
+                return;
+            }
+        }
+
+        rsp.setContentType("application/x-ndjson;charset=UTF-8");
+        PrintWriter writer = rsp.getWriter();
+        LastResultIndex index = LastResultIndex.get();
+
+        Iterator<Job<?, ?>> matches = builder.select(type, cursor).iterator();
+
+        int written = 0;
+        String lastName = null;
+        while (written < limit && matches.hasNext()) {
+            Job<?, ?> project = matches.next();
+            lastName = project.getFullName();
+
+            JSONObject line = new JSONObject();
+            line.put("name", project.getFullName());
+            line.put("displayName", project.getFullDisplayName());
+            line.put("url", project.getUrl());
+            Result lastResult = index.getLastResult(project);
+            line.put("lastResult", lastResult == null ? JSONNull.getInstance() : lastResult.toString());
+            writer.println(line.toString());
+
+            if (++written % PREVIEW_FLUSH_INTERVAL == 0) {
+                writer.flush();
+            }
+        }
+
+        JSONObject last = new JSONObject();
+        last.put("cursor", matches.hasNext() ? lastName : JSONNull.getInstance());
+        writer.println(last.toString());
+        writer.flush();
+    }
+
+    /**
+     * Cancel the operation named by the {@code id} parameter: nothing more
+     * is scheduled and its builds still held back or waiting in the queue
+     * are removed. The number removed is returned in {@link #CANCELLED_HEADER}.
+     * Only the user who submitted the operation and administrators may
+     * cancel it.
+     *
+     * @param req
+     * @param rsp
+     * @throws ServletException
+     * @throws IOException
+     */
+    @RequirePOST
+    public final void doCancel(StaplerRequest req, StaplerResponse rsp)
+        throws ServletException, IOException {
+        String id = req.getParameter("id");
+        BulkOperation operation = id == null ? null : BulkOperationManager.get().getOperation(id);
+        if (operation == null) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND, "Unknown bulk operation");
+            return;
+        }
+        if (!operation.hasCancelPermission()) {
+            rsp.sendError(StaplerResponse.SC_FORBIDDEN, "Not allowed to cancel bulk operation " + id);
+            return;
         }
 
+        int removed = operation.cancel();
+        LOGGER.log(Level.INFO, "Cancelled bulk operation {0}, removed {1} builds", new Object[]{id, removed});
+
+        rsp.setHeader(OPERATION_HEADER, id);
+        rsp.setHeader(CANCELLED_HEADER, String.valueOf(removed));
         rsp.forwardToPreviousPage(req);
     }
 
+    /**
+     * Item counts of the views in {@link #getViews()}, as JSON. Counts not
+     * yet computed are left out and {@code pending} is true until a later
+     * call finds them all.
+     *
+     * @param req
+     * @param rsp
+     * @throws IOException
+     */
+    public final void doViewSizes(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Collection<View> views = getViews();
+        Map<String, Integer> sizes = ViewSizeCache.get().getSizes(views);
+
+        JSONObject json = new JSONObject();
+        json.put("sizes", sizes);
+        json.put("pending", sizes.size() < views.size());
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(json.toString());
+    }
+
+    /**
+     * Cached item count of a view, for rendering without counting
+     *
+     * @param view
+     * @return the count, or null if not yet computed
+     */
+    public final Integer getViewSize(View view) {
+        return ViewSizeCache.get().getSize(view);
+    }
+
+    /**
+     * Recently submitted bulk operations the current user may cancel,
+     * newest first
+     *
+     * @return
+     */
+    @Exported
+    public final List<BulkOperation> getOperations() {
+        List<BulkOperation> operations = new ArrayList<BulkOperation>();
+        for (BulkOperation operation : BulkOperationManager.get().getOperations()) {
+            if (operation.hasCancelPermission()) {
+                operations.add(operation);
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Counters and timing histograms over all finished operations
+     *
+     * @return
+     */
+    @Exported
+    public final BulkBuilderMetrics getMetrics() {
+        return BulkBuilderMetrics.get();
+    }
+
+    /**
+     * Bound to {@code /bulkbuilder/operation/<id>/}, exposes the progress of
+     * a single operation via its remote API.
+     *
+     * @param id
+     * @return the operation, or null if unknown or the current user may not
+     * cancel it
+     */
+    public final BulkOperation getOperation(String id) {
+        BulkOperation operation = BulkOperationManager.get().getOperation(id);
+        return operation != null && operation.hasCancelPermission() ? operation : null;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
     /**
      * Gets the number projects in the build queue
      *
@@ -155,7 +473,17 @@ public class BulkBuilderAction implements RootAction {
      */
     @Exported
     public final int getQueueSize() {
-        return Hudson.getInstance().getQueue().getItems().length;
+        return QueueCounter.get().getSize();
+    }
+
+    /**
+     * Gets the queue broken down by item state and bulk share
+     *
+     * @return
+     */
+    @Exported
+    public final QueueCounter getQueueCounter() {
+        return QueueCounter.get();
     }
 
     /**
@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Hudson;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.QueueListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+
+/**
+ * Set of tasks currently queued or building.
+ *
+ * The set is rebuilt from the queue and executors when a bulk operation
+ * which skips active jobs starts, then kept up to date from queue and build
+ * events, so each selected job is checked with one hash lookup rather than
+ * a scan of the queue.
+ *
+ * Tasks are tracked by their owner task, so the queue items and builds of a
+ * Pipeline's node blocks or a matrix project's configurations all count
+ * towards the job that owns them. Executors running something other than a
+ * build, such as a node block, are not counted when resyncing, as no build
+ * event would remove them again; the build owning them is counted instead.
+ *
+ * Resyncing and every update happen under the queue lock, which queue
+ * events already hold, so no event is lost or applied twice while the set is
+ * rebuilt. The rebuilt set replaces the old one in one step, so lookups never
+ * see it half built.
+ *
+ * @author simon
+ */
+@Extension
+public class ActiveTasks {
+
+    private static final BiFunction<Queue.Task, Integer, Integer> DECREMENT = new BiFunction<Queue.Task, Integer, Integer>() {
+        public Integer apply(Queue.Task task, Integer current) {
+            return current > 1 ? current - 1 : null;
+        }
+    };
+
+    private static final BiFunction<Integer, Integer, Integer> SUM = new BiFunction<Integer, Integer, Integer>() {
+        public Integer apply(Integer current, Integer one) {
+            return current + one;
+        }
+    };
+
+    /**
+     * Number of queue items plus running builds of each task
+     */
+    private volatile ConcurrentMap<Queue.Task, Integer> active = new ConcurrentHashMap<Queue.Task, Integer>();
+
+    public static ActiveTasks get() {
+        return Hudson.getInstance().getExtensionList(ActiveTasks.class).get(0);
+    }
+
+    /**
+     * Is a task queued or building?
+     *
+     * @param task
+     * @return
+     */
+    public boolean isActive(Queue.Task task) {
+        return active.containsKey(task.getOwnerTask());
+    }
+
+    /**
+     * Number of active tasks
+     *
+     * @return
+     */
+    public int size() {
+        return active.size();
+    }
+
+    /**
+     * Rebuild the set from the queue and executors, as the system so that
+     * items hidden from the current user are included
+     */
+    final void resync() {
+        Queue.withLock(new Runnable() {
+            public void run() {
+                List<Queue.Task> tasks = new ArrayList<Queue.Task>();
+                try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+                    for (Queue.Item item : Hudson.getInstance().getQueue().getItems()) {
+                        tasks.add(item.task);
+                    }
+                    for (Computer computer : Hudson.getInstance().getComputers()) {
+                        List<Executor> executors = new ArrayList<Executor>(computer.getExecutors());
+                        executors.addAll(computer.getOneOffExecutors());
+                        for (Executor executor : executors) {
+                            Queue.Executable executable = executor.getCurrentExecutable();
+                            if (executable instanceof Run && ((Run<?, ?>) executable).getParent() instanceof Queue.Task) {
+                                tasks.add((Queue.Task) ((Run<?, ?>) executable).getParent());
+                            }
+                        }
+                    }
+                }
+
+                ConcurrentMap<Queue.Task, Integer> rebuilt = new ConcurrentHashMap<Queue.Task, Integer>();
+                for (Queue.Task task : tasks) {
+                    rebuilt.merge(task.getOwnerTask(), 1, SUM);
+                }
+                active = rebuilt;
+            }
+        });
+    }
+
+    /**
+     * Count a queue item or build of a task; the caller holds the queue lock
+     *
+     * @param task
+     */
+    final void add(Queue.Task task) {
+        active.merge(task.getOwnerTask(), 1, SUM);
+    }
+
+    /**
+     * Stop counting a queue item or build of a task; the caller holds the
+     * queue lock
+     *
+     * @param task
+     */
+    final void remove(Queue.Task task) {
+        active.computeIfPresent(task.getOwnerTask(), DECREMENT);
+    }
+
+    @Extension
+    public static class QueueListenerImpl extends QueueListener {
+
+        @Override
+        public void onEnterWaiting(Queue.WaitingItem wi) {
+            get().add(wi.task);
+        }
+
+        @Override
+        public void onLeft(Queue.LeftItem li) {
+            get().remove(li.task);
+        }
+    }
+
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onStarted(Run<?, ?> run, TaskListener listener) {
+            if (run.getParent() instanceof Queue.Task) {
+                final Queue.Task task = (Queue.Task) run.getParent();
+                Queue.withLock(new Runnable() {
+                    public void run() {
+                        get().add(task);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onFinalized(Run<?, ?> run) {
+            if (run.getParent() instanceof Queue.Task) {
+                final Queue.Task task = (Queue.Task) run.getParent();
+                Queue.withLock(new Runnable() {
+                    public void run() {
+                        get().remove(task);
+                    }
+                });
+            }
+        }
+    }
+}
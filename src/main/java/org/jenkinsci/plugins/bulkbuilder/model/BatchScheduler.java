@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.Hudson;
+import hudson.model.Queue;
+import hudson.model.queue.ScheduleResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Inserts schedule requests into the build queue in batches, taking the
+ * queue lock once per batch rather than once per task.
+ *
+ * @author simon
+ */
+final class BatchScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchScheduler.class.getName());
+
+    private final BulkOperation operation;
+
+    private final int batchSize;
+
+    /**
+     * Pass batches to the {@link HoldingQueue} instead of the build queue
+     */
+    private final boolean hold;
+
+    private final List<ScheduleRequest> pending;
+
+    BatchScheduler(BulkOperation operation, int batchSize, boolean hold) {
+        this.operation = operation;
+        this.batchSize = Math.max(1, batchSize);
+        this.hold = hold;
+        this.pending = new ArrayList<ScheduleRequest>(this.batchSize);
+    }
+
+    /**
+     * Queue a request, inserting the current batch once it is full
+     *
+     * @param request
+     */
+    void add(ScheduleRequest request) {
+        pending.add(request);
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Insert any pending requests
+     */
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final List<ScheduleRequest> batch = new ArrayList<ScheduleRequest>(pending);
+        pending.clear();
+
+        if (hold) {
+            HoldingQueue.get().offer(batch, operation);
+        } else {
+            insert(batch, operation, batchSize > 1);
+        }
+    }
+
+    /**
+     * Insert requests into the queue while holding its lock
+     *
+     * A request may be folded into an item already waiting for the same
+     * task. That item does not carry the operation's
+     * {@link BulkOperationAction}, so no event of this operation will see it
+     * leave the queue; only new items are counted in the result.
+     *
+     * @param batch
+     * @param operation operation to credit
+     * @param recordStats record lock hold time for the batch
+     * @return number of new queue items created for the operation
+     */
+    static int insert(final List<ScheduleRequest> batch, final BulkOperation operation, boolean recordStats) {
+        final Queue queue = Hudson.getInstance().getQueue();
+        final long[] held = new long[3];
+        long start = System.nanoTime();
+
+        Queue.withLock(new Runnable() {
+            public void run() {
+                long start = System.nanoTime();
+                int accepted = 0;
+                int created = 0;
+                for (ScheduleRequest request : batch) {
+                    if (operation.isCancelled()) {
+                        operation.cancelled(1);
+                        continue;
+                    }
+                    ScheduleResult result = queue.schedule2(request.getTask(), request.getQuietPeriod(),
+                            request.getActions());
+                    if (result.isAccepted()) {
+                        operation.scheduled();
+                        operation.admitted(LabelSpreading.nameOf(request.getTask().getAssignedLabel()));
+                        accepted++;
+                        if (result.isCreated()) {
+                            created++;
+                        }
+                    } else {
+                        LOGGER.log(Level.FINE, "Queue refused {0}", request);
+                        operation.skipped();
+                    }
+                }
+                held[0] = System.nanoTime() - start;
+                held[1] = accepted;
+                held[2] = created;
+            }
+        });
+
+        operation.addTime(BulkOperation.Phase.SCHEDULING, System.nanoTime() - start);
+
+        if (recordStats) {
+            operation.addBatch(new BatchStats(batch.size(), (int) held[1], held[0]));
+        }
+        return (int) held[2];
+    }
+}
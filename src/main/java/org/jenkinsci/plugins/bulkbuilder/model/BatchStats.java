@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Timing of a single batch inserted into the build queue.
+ *
+ * Immutable object
+ *
+ * @author simon
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class BatchStats {
+
+    private final int size;
+
+    private final int accepted;
+
+    private final long lockNanos;
+
+    public BatchStats(int size, int accepted, long lockNanos) {
+        this.size = size;
+        this.accepted = accepted;
+        this.lockNanos = lockNanos;
+    }
+
+    /**
+     * Number of requests in the batch
+     *
+     * @return
+     */
+    @Exported
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Number of requests accepted by the queue
+     *
+     * @return
+     */
+    @Exported
+    public int getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * Time the queue lock was held, in milliseconds
+     *
+     * @return
+     */
+    @Exported
+    public double getLockMillis() {
+        return lockNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Insertion rate while holding the lock
+     *
+     * @return
+     */
+    @Exported
+    public double getItemsPerSecond() {
+        return lockNanos == 0 ? 0 : size * (double) TimeUnit.SECONDS.toNanos(1) / lockNanos;
+    }
+}
@@ -25,44 +25,126 @@
 package org.jenkinsci.plugins.bulkbuilder.model;
 
 import hudson.Plugin;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
 
 /**
+ * Recently used build patterns, most recent first.
+ *
+ * Each pattern appears once; using it again moves it to the front. The list
+ * is replaced rather than modified on every change, so readers get a
+ * consistent snapshot without locking. Changes are saved to the plugin's
+ * configuration file after {@link #SAVE_DELAY} seconds, so a burst of bulk
+ * builds causes a single write.
+ *
  * @author simon
  */
 public class BuildHistory extends Plugin {
 
+    private static final Logger LOGGER = Logger.getLogger(BuildHistory.class.getName());
+
     /**
      * Size of the history to maintain
      */
     public static final int SIZE = 10;
 
     /**
-     * History list
+     * Seconds to wait after a change before saving
      */
-    private LinkedList<BuildHistoryItem> items = new LinkedList<BuildHistoryItem>();
+    static final int SAVE_DELAY = SystemProperties.getInteger(BuildHistory.class.getName() + ".saveDelay", 10);
 
     /**
-     * Add a new pattern, over-writing any previous occurrences
+     * History list, never modified once published
+     */
+    private volatile List<BuildHistoryItem> items = new ArrayList<BuildHistoryItem>();
+
+    private final transient AtomicBoolean savePending = new AtomicBoolean();
+
+    @Override
+    public void start() throws Exception {
+	load();
+	if (items == null) {
+	    items = new ArrayList<BuildHistoryItem>();
+	}
+    }
+
+    @Override
+    public void stop() throws Exception {
+	if (savePending.getAndSet(false)) {
+	    save();
+	}
+    }
+
+    /**
+     * Add a new pattern, merging it with any previous occurrence
      *
      * @param pattern
      */
     public final void add(BuildHistoryItem pattern) {
-	items.addFirst(pattern);
+	synchronized (this) {
+	    List<BuildHistoryItem> updated = new ArrayList<BuildHistoryItem>(SIZE + 1);
+	    BuildHistoryItem merged = pattern;
+
+	    for (BuildHistoryItem item : items) {
+		if (item.getPattern().equals(pattern.getPattern())) {
+		    merged = item.usedAgain(pattern);
+		} else if (updated.size() < SIZE - 1) {
+		    updated.add(item);
+		}
+	    }
+
+	    updated.add(0, merged);
+	    items = updated;
+	}
+
+	scheduleSave();
+    }
 
-	if (items.size() > SIZE) {
-	    items.removeLast();
+    /**
+     * Record the number of jobs a pattern in the history matched
+     *
+     * @param pattern
+     * @param matches
+     */
+    public final void recordMatches(String pattern, int matches) {
+	synchronized (this) {
+	    List<BuildHistoryItem> updated = new ArrayList<BuildHistoryItem>(items);
+	    boolean found = false;
+
+	    for (int i = 0; i < updated.size(); i++) {
+		BuildHistoryItem item = updated.get(i);
+		if (item.getPattern().equals(pattern)) {
+		    updated.set(i, item.matched(matches));
+		    found = true;
+		    break;
+		}
+	    }
+
+	    if (!found) {
+		return;
+	    }
+	    items = updated;
 	}
+
+	scheduleSave();
     }
 
     /**
      * Return list of build patterns
      *
-     * @return
+     * @return an unmodifiable snapshot
      */
     public final List<BuildHistoryItem> getAll() {
-	return items;
+	return Collections.unmodifiableList(items);
     }
 
     /**
@@ -78,6 +160,32 @@ public class BuildHistory extends Plugin {
      * Remove all items from build history
      */
     public final void clear() {
-	items.clear();
+	synchronized (this) {
+	    items = new ArrayList<BuildHistoryItem>();
+	}
+
+	scheduleSave();
+    }
+
+    /**
+     * Save once, shortly, however many changes are made in the meantime
+     */
+    private void scheduleSave() {
+	if (Jenkins.getInstanceOrNull() == null || !savePending.compareAndSet(false, true)) {
+	    return;
+	}
+
+	Timer.get().schedule(new Runnable() {
+	    public void run() {
+		if (!savePending.getAndSet(false)) {
+		    return;
+		}
+		try {
+		    save();
+		} catch (IOException e) {
+		    LOGGER.log(Level.WARNING, "Failed to save build history", e);
+		}
+	    }
+	}, SAVE_DELAY, TimeUnit.SECONDS);
     }
 }
@@ -32,7 +32,22 @@ public class BuildHistoryItem {
     /**
      * Build pattern entered by user
      */
-    private String pattern;
+    private final String pattern;
+
+    /**
+     * Number of times the pattern has been used
+     */
+    private final int useCount;
+
+    /**
+     * Time the pattern was last used
+     */
+    private final long lastUsed;
+
+    /**
+     * Number of jobs the pattern last matched, or -1 if not known
+     */
+    private final int lastMatchCount;
 
     /**
      * Constructor
@@ -42,7 +57,14 @@ public class BuildHistoryItem {
      * @param pattern
      */
     public BuildHistoryItem(String pattern) {
+	this(pattern, 1, System.currentTimeMillis(), -1);
+    }
+
+    BuildHistoryItem(String pattern, int useCount, long lastUsed, int lastMatchCount) {
 	this.pattern = pattern;
+	this.useCount = useCount;
+	this.lastUsed = lastUsed;
+	this.lastMatchCount = lastMatchCount;
     }
 
     /**
@@ -54,6 +76,54 @@ public class BuildHistoryItem {
 	return pattern;
     }
 
+    /**
+     * Get number of times the pattern has been used
+     *
+     * @return
+     */
+    public final int getUseCount() {
+	return useCount;
+    }
+
+    /**
+     * Get time the pattern was last used
+     *
+     * @return
+     */
+    public final long getLastUsed() {
+	return lastUsed;
+    }
+
+    /**
+     * Get number of jobs the pattern last matched
+     *
+     * @return the match count, or -1 if not known
+     */
+    public final int getLastMatchCount() {
+	return lastMatchCount;
+    }
+
+    /**
+     * This pattern used again, as described by a newer item
+     *
+     * @param newer
+     * @return
+     */
+    final BuildHistoryItem usedAgain(BuildHistoryItem newer) {
+	return new BuildHistoryItem(pattern, useCount + newer.useCount,
+		Math.max(lastUsed, newer.lastUsed), newer.lastMatchCount >= 0 ? newer.lastMatchCount : lastMatchCount);
+    }
+
+    /**
+     * This pattern with an updated match count
+     *
+     * @param matches
+     * @return
+     */
+    final BuildHistoryItem matched(int matches) {
+	return new BuildHistoryItem(pattern, useCount, lastUsed, matches);
+    }
+
     /**
      * toString
      *
@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+/**
+ * Order in which selected jobs are scheduled
+ *
+ * @author simon
+ */
+public enum BuildOrder {
+    /**
+     * The order jobs are found in, without collecting the selection first
+     */
+    NATURAL,
+
+    /**
+     * Longest estimated duration first
+     */
+    LONGEST_FIRST,
+
+    /**
+     * Longest estimated duration first within each assigned label, taking
+     * turns between labels so every label starts on its longest jobs
+     */
+    LONGEST_FIRST_BY_LABEL,
+
+    /**
+     * Fill the free executors of every label first, then interleave labels
+     * in proportion to their executors, see {@link LabelSpreading}
+     */
+    SPREAD_BY_LABEL
+}
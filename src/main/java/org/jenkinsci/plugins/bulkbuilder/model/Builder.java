@@ -24,18 +24,30 @@
 
 package org.jenkinsci.plugins.bulkbuilder.model;
 
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
-import com.google.common.base.Predicates;
 import com.google.common.collect.Iterables;
-import hudson.Util;
+import com.google.common.collect.Lists;
+import com.google.common.collect.UnmodifiableIterator;
 import hudson.model.*;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.bulkbuilder.model.BulkOperation.Phase;
+import org.springframework.security.core.Authentication;
 
 /**
  * @author simon
@@ -44,6 +56,16 @@ public class Builder {
 
     private static final Logger LOGGER = Logger.getLogger(Builder.class.getName());
 
+    /**
+     * Default for {@link #setParallel(boolean)}
+     */
+    static final boolean PARALLEL = SystemProperties.getBoolean(Builder.class.getName() + ".parallel");
+
+    /**
+     * Default for {@link #setBatchSize(int)}
+     */
+    static final int BATCH_SIZE = SystemProperties.getInteger(Builder.class.getName() + ".batchSize", 1);
+
     private BuildAction action;
 
     /**
@@ -55,8 +77,75 @@ public class Builder {
 
     private String view;
 
+    private Selector selector;
+
+    /**
+     * Evaluate filters on a fork-join pool
+     */
+    private boolean parallel = PARALLEL;
+
+    /**
+     * Number of builds to insert into the queue per lock acquisition
+     */
+    private int batchSize = BATCH_SIZE;
+
+    /**
+     * Limits how fast builds are scheduled, if set
+     */
+    private RateLimiter rateLimiter;
+
+    /**
+     * Hold builds in the {@link HoldingQueue} until executors are free
+     */
+    private boolean hold;
+
+    private BuildOrder order = BuildOrder.NATURAL;
+
+    private DuplicatePolicy duplicates = DuplicatePolicy.SCHEDULE;
+
+    private boolean pruneDownstream;
+
+    /**
+     * Builds per wave, or 0 to schedule everything at once
+     */
+    private int waveSize;
+
+    private int queueThreshold;
+
+    private int canarySize;
+
+    private double maxCanaryFailurePercent;
+
+    private WaveScheduler waves;
+
+    private ActiveTasks activeTasks;
+
+    /**
+     * Pruning of the round of jobs being scheduled, if pruning
+     */
+    private DependencyPruning pruning;
+
+    /**
+     * Downstream jobs left out because a scheduled job triggers them
+     */
+    private int pruned;
+
+    private final BulkOperation operation;
+
+    private BatchScheduler scheduler;
+
     public Builder(BuildAction action) {
         this.action = action;
+        this.operation = new BulkOperation(action);
+    }
+
+    /**
+     * Progress of this builder's run
+     *
+     * @return
+     */
+    public final BulkOperation getOperation() {
+        return operation;
     }
 
     public void setUserParams(Map<String, String> param) {
@@ -71,46 +160,467 @@ public class Builder {
         this.view = view;
     }
 
+    /**
+     * Select only jobs matching a query, on top of the build type, pattern
+     * and view
+     *
+     * @param selector
+     */
+    public void setSelector(Selector selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * Evaluate the selection filters on a fork-join pool rather than the
+     * calling thread. Worthwhile on very large instances only.
+     *
+     * @param parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Insert builds into the queue in batches of this size, holding the
+     * queue lock once per batch. Lock hold time for each batch is recorded
+     * in the operation when larger than one.
+     *
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Keep builds out of the Jenkins queue until executors are free for
+     * them, see {@link HoldingQueue}
+     *
+     * @param hold
+     */
+    public void setHold(boolean hold) {
+        this.hold = hold;
+    }
+
+    /**
+     * Order in which to schedule the selected jobs. Any order other than
+     * {@link BuildOrder#NATURAL} collects the whole selection before the
+     * first job is scheduled.
+     *
+     * @param order
+     */
+    public void setOrder(BuildOrder order) {
+        this.order = order;
+        operation.setOrder(order);
+    }
+
+    /**
+     * Leave out selected jobs which another selected job triggers through
+     * the dependency graph, and schedule the rest in topological order
+     * unless another order is requested. Collects the whole selection
+     * before the first job is scheduled. Ignored when user parameters are
+     * given, as triggered builds would not get them.
+     *
+     * @param pruneDownstream
+     */
+    public void setPruneDownstream(boolean pruneDownstream) {
+        this.pruneDownstream = pruneDownstream;
+    }
+
+    /**
+     * Release builds into the queue in waves, the next wave going in when
+     * the previous one has left the queue or the queue is shorter than the
+     * threshold. Takes precedence over {@link #setHold(boolean)}.
+     *
+     * @param waveSize builds per wave
+     * @param queueThreshold queue length below which the next wave may go
+     * in, or 0 to wait for the previous wave to leave the queue
+     */
+    public void setWaves(int waveSize, int queueThreshold) {
+        this.waveSize = Math.max(0, waveSize);
+        this.queueThreshold = Math.max(0, queueThreshold);
+    }
+
+    /**
+     * Start the waves with a canary wave which must finish before any other
+     * wave is released. If more than the given percentage of canary builds
+     * fail, the remaining builds are dropped. Only used with
+     * {@link #setWaves(int, int)}.
+     *
+     * @param canarySize builds in the canary wave
+     * @param maxFailurePercent
+     */
+    public void setCanary(int canarySize, double maxFailurePercent) {
+        this.canarySize = Math.max(0, canarySize);
+        this.maxCanaryFailurePercent = maxFailurePercent;
+    }
+
+    /**
+     * What to do with selected jobs which are already queued or building
+     *
+     * @param duplicates
+     */
+    public void setDuplicatePolicy(DuplicatePolicy duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Limit the rate at which selected jobs are scheduled. Selection still
+     * finishes straight away; the selected jobs then count as held until
+     * they are scheduled in the background.
+     *
+     * @param permitsPerSecond sustained number of jobs per second
+     * @param burst number of jobs which may be scheduled without waiting
+     */
+    public void setRateLimit(double permitsPerSecond, int burst) {
+        this.rateLimiter = new RateLimiter(permitsPerSecond, burst);
+        operation.setRateLimiter(rateLimiter);
+    }
+
+    /**
+     * Build Jenkins projects matching the given build type, recording
+     * progress in {@link #getOperation()}.
+     *
+     * @param type
+     * @return number of projects scheduled
+     */
+    public final int build(BuildType type) {
+        operation.setType(type);
+        operation.started();
+        if (operation.isCancelled()) {
+            return 0;
+        }
+
+        try {
+            int i = 0;
+
+            switch (type) {
+                case ABORTED:
+                    i = buildAborted();
+                    break;
+                case ALL:
+                    i = buildAll();
+                    break;
+                case FAILED:
+                    i = buildFailed();
+                    break;
+                case FAILED_ONLY:
+                    i = buildFailedOnly();
+                    break;
+                case NOT_BUILD_ONLY:
+                    i = buildNotBuildOnly();
+                    break;
+                case NOT_BUILT:
+                    i = buildNotBuilt();
+                    break;
+                case UNSTABLE:
+                    i = buildUnstable();
+                    break;
+                case UNSTABLE_ONLY:
+                    i = buildUnstableOnly();
+                    break;
+            }
+
+            operation.completed();
+
+            if (pattern != null) {
+                BuildHistory history = Hudson.getInstance().getPlugin(BuildHistory.class);
+                if (history != null) {
+                    history.recordMatches(pattern, operation.getMatched());
+                }
+            }
+            return i;
+        } catch (RuntimeException e) {
+            operation.failed(e);
+            throw e;
+        }
+    }
+
     /**
      * Build Jenkins projects
      */
     protected int build(ArrayList filters) {
-        int i = 0;
+        // Build composite predicate of all build prefs, cheapest checks first
+        final Selector compositePredicate = Selector.allOf(filters);
+        LOGGER.log(Level.FINE, "Selecting jobs where {0}", compositePredicate);
+
+        Predicate<Job<?, ?>> countingPredicate = new Predicate<Job<?, ?>>() {
+            @Override
+            public boolean apply(Job<?, ?> project) {
+                operation.evaluated();
+                long start = System.nanoTime();
+                try {
+                    return compositePredicate.apply(project);
+                } finally {
+                    operation.addTime(Phase.FILTERING, System.nanoTime() - start);
+                }
+            }
+        };
 
-        // Build composite predicate of all build prefs
-        Predicate<AbstractProject<?, ?>> compositePredicate = Predicates.and(filters);
+        scheduler = new BatchScheduler(operation, batchSize, hold);
+        if (waveSize > 0 && !action.equals(BuildAction.POLL_SCM)) {
+            waves = new WaveScheduler(operation, waveSize, queueThreshold, canarySize, maxCanaryFailurePercent);
+            operation.setWaves(waves);
+        }
+        if (duplicates != DuplicatePolicy.SCHEDULE && !action.equals(BuildAction.POLL_SCM)) {
+            activeTasks = ActiveTasks.get();
+            activeTasks.resync();
+        }
+        int before = operation.getScheduled() + operation.getHeld();
 
-        List<AbstractProject<?, ?>> projects = getProjects(this.view);
+        Iterable<Job<?, ?>> projects = timed(getProjects(this.view));
 
         // Use composite predicate to identify target projects
-        Iterable<AbstractProject<?, ?>> targetProjects = Iterables.filter(projects, compositePredicate);
+        Iterator<Job<?, ?>> targetProjects;
+        if (parallel) {
+            targetProjects = ParallelFilter.filter(projects, countingPredicate, operation).iterator();
+        } else {
+            targetProjects = Iterables.filter(projects, countingPredicate).iterator();
+        }
+
+        boolean prune = pruneDownstream;
+        if (prune && param != null) {
+            LOGGER.log(Level.WARNING, "Not pruning downstream jobs of bulk operation {0}, "
+                    + "triggered builds would not get its parameters", operation);
+            prune = false;
+        }
+
+        if (order != BuildOrder.NATURAL || prune) {
+            targetProjects = order(targetProjects, prune);
+        }
+
+        List<Job<?, ?>> scheduledRoots = new ArrayList<Job<?, ?>>();
+        if (rateLimiter != null) {
+            new PacedSchedule(Lists.newArrayList(targetProjects), scheduledRoots).run();
+            return operation.getScheduled() + operation.getHeld() - before;
+        }
+
+        boolean finished = schedule(targetProjects, pruning == null ? null : scheduledRoots);
+        List<Job<?, ?>> uncovered;
+        while ((uncovered = uncovered(finished, scheduledRoots)) != null) {
+            finished = schedule(uncovered.iterator(), scheduledRoots);
+        }
+        finishScheduling();
+
+        return operation.getScheduled() + operation.getHeld() - before;
+    }
+
+    /**
+     * Schedule builds of the given jobs until done or stopped
+     *
+     * @param targetProjects
+     * @param scheduled collects the jobs scheduled, if not null
+     * @return false if stopped by a cancel
+     */
+    private boolean schedule(Iterator<Job<?, ?>> targetProjects, List<Job<?, ?>> scheduled) {
+        while (!operation.isCancelled() && targetProjects.hasNext()) {
+            schedule(targetProjects.next(), scheduled);
+        }
+        return !operation.isCancelled();
+    }
+
+    private void schedule(Job<?, ?> project, List<Job<?, ?>> scheduled) {
+        operation.matched();
+
+        LOGGER.log(Level.FINE, "Scheduling build for job ''{0}''", project.getFullDisplayName());
+        if (!performBuildProject(project)) {
+            operation.skipped();
+        } else if (scheduled != null) {
+            scheduled.add(project);
+        }
+    }
+
+    /**
+     * A left out job is only triggered if the job covering it was scheduled,
+     * so prune again the jobs whose roots were not, counting the rest as
+     * pruned.
+     *
+     * @param finished were all roots handled?
+     * @param scheduledRoots roots scheduled so far, cleared for the next round
+     * @return roots of the jobs left uncovered, or null once there are none
+     */
+    private List<Job<?, ?>> uncovered(boolean finished, List<Job<?, ?>> scheduledRoots) {
+        if (pruning == null) {
+            return null;
+        }
+
+        List<Job<?, ?>> uncovered = finished
+                ? pruning.uncovered(scheduledRoots) : Collections.<Job<?, ?>>emptyList();
+        pruned += pruning.getPruned() - uncovered.size();
+        if (uncovered.isEmpty()) {
+            return null;
+        }
+
+        LOGGER.log(Level.FINE, "Scheduling {0} downstream jobs of jobs which were not scheduled",
+                uncovered.size());
+        long start = System.nanoTime();
+        pruning = DependencyPruning.prune(uncovered, Hudson.getInstance().getDependencyGraph());
+        operation.addTime(Phase.ORDERING, System.nanoTime() - start);
+
+        scheduledRoots.clear();
+        return pruning.getRoots();
+    }
 
-        for (AbstractProject<?, ?> project : targetProjects) {
-            LOGGER.log(Level.FINE, "Scheduling build for job '" + project.getDisplayName() + "'");
-            if (performBuildProject(project)) {
-                i++;
+    /**
+     * Insert anything still batched and start the waves, once every selected
+     * job has been handled
+     */
+    private void finishScheduling() {
+        operation.matched(pruned);
+        operation.pruned(pruned);
+
+        scheduler.flush();
+        if (waves != null) {
+            waves.start();
+        }
+    }
+
+    /**
+     * Schedules the selected jobs at the rate limit from {@link Timer}, so a
+     * rate limited operation does not tie up a {@link BulkOperationManager}
+     * thread while it waits for tokens. Jobs waiting for a token count as
+     * held, which keeps the operation running until they are all handled.
+     */
+    private final class PacedSchedule implements Runnable {
+
+        private final Authentication auth = Jenkins.getAuthentication2();
+
+        private final List<Job<?, ?>> scheduledRoots;
+
+        private Iterator<Job<?, ?>> targets;
+
+        /**
+         * Jobs held which have not been handled yet
+         */
+        private int waiting;
+
+        /**
+         * Is the last job handled still counted as held? It is released
+         * only once the next job is handled or scheduling has finished, so
+         * the operation cannot complete in between.
+         */
+        private boolean lastHeld;
+
+        /**
+         * Was a token taken ahead of time for the next job?
+         */
+        private boolean reserved;
+
+        PacedSchedule(List<Job<?, ?>> selected, List<Job<?, ?>> scheduledRoots) {
+            this.scheduledRoots = scheduledRoots;
+            start(selected);
+        }
+
+        private void start(List<Job<?, ?>> jobs) {
+            targets = jobs.iterator();
+            waiting += jobs.size();
+            operation.held(jobs.size());
+        }
+
+        public void run() {
+            try (ACLContext ctx = ACL.as2(auth)) {
+                long wait = step();
+                if (wait > 0) {
+                    // do not keep what is already batched waiting too
+                    scheduler.flush();
+                    Timer.get().schedule(this, wait, TimeUnit.NANOSECONDS);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Rate limited bulk operation " + operation + " failed", e);
+                operation.failed(e);
+                release();
             }
         }
 
-        return i;
+        /**
+         * Handle jobs while there are tokens for them
+         *
+         * @return nanoseconds until the next token is due, or 0 once done
+         */
+        private long step() {
+            do {
+                while (!operation.isCancelled() && targets.hasNext()) {
+                    if (!reserved) {
+                        long wait = rateLimiter.reserve();
+                        if (wait > 0) {
+                            reserved = true;
+                            return wait;
+                        }
+                    }
+                    reserved = false;
+
+                    schedule(targets.next(), pruning == null ? null : scheduledRoots);
+                    waiting--;
+                    if (lastHeld) {
+                        operation.released(1);
+                    }
+                    lastHeld = true;
+                }
+
+                List<Job<?, ?>> uncovered = uncovered(!operation.isCancelled(), scheduledRoots);
+                if (uncovered == null) {
+                    break;
+                }
+                start(uncovered);
+            } while (true);
+
+            finishScheduling();
+            release();
+            return 0;
+        }
+
+        /**
+         * Release everything still held, as cancelled if never handled
+         */
+        private void release() {
+            if (operation.isCancelled()) {
+                operation.cancelled(waiting);
+            }
+            operation.released(waiting + (lastHeld ? 1 : 0));
+            waiting = 0;
+            lastHeld = false;
+        }
     }
 
-    private int buildWorseOrEqualsTo(final Result r) {
-        LOGGER.log(Level.FINE, "Starting to build " + r.toString() + " jobs.");
+    /**
+     * Collect the selection, prune it and put it in the requested order
+     *
+     * @param targetProjects
+     * @param prune
+     * @return
+     */
+    private Iterator<Job<?, ?>> order(Iterator<Job<?, ?>> targetProjects, boolean prune) {
+        List<Job<?, ?>> selected = Lists.newArrayList(targetProjects);
 
-        ArrayList<Predicate<AbstractProject<?, ?>>> filters = new ArrayList<Predicate<AbstractProject<?, ?>>>();
+        long start = System.nanoTime();
+        if (prune) {
+            pruning = DependencyPruning.prune(selected, Hudson.getInstance().getDependencyGraph());
+            selected = pruning.getRoots();
 
-        filters.add(new Predicate<AbstractProject<?, ?>>() {
-            @Override
-            public boolean apply(AbstractProject<?, ?> project) {
-                AbstractBuild<?, ?> build = project.getLastCompletedBuild();
-                return build == null || build.getResult().isWorseOrEqualTo(r);
+            if (order == BuildOrder.NATURAL) {
+                operation.addTime(Phase.ORDERING, System.nanoTime() - start);
+                return selected.iterator();
             }
-        });
+        }
+
+        if (order == BuildOrder.SPREAD_BY_LABEL) {
+            List<Job<?, ?>> spread = LabelSpreading.spread(selected);
+            operation.addTime(Phase.ORDERING, System.nanoTime() - start);
+            return spread.iterator();
+        }
+
+        DurationOrdering ordering = DurationOrdering.order(selected, order == BuildOrder.LONGEST_FIRST_BY_LABEL);
+        operation.addTime(Phase.ORDERING, System.nanoTime() - start);
+        operation.setMakespan(ordering.getNaiveMakespan(), ordering.getOrderedMakespan());
 
-        filters = addSubFilters(filters);
+        LOGGER.log(Level.FINE, "Ordered {0} jobs, estimated makespan {1}ms rather than {2}ms",
+                new Object[]{selected.size(), ordering.getOrderedMakespan(), ordering.getNaiveMakespan()});
+        return ordering.getOrder().iterator();
+    }
+
+    private int buildWorseOrEqualsTo(final Result r) {
+        LOGGER.log(Level.FINE, "Starting to build " + r.toString() + " jobs.");
 
-        int i = build(filters);
+        int i = build(worseOrEqualsToFilters(r));
 
         LOGGER.log(Level.FINE, "Finished building " + r.toString() + " jobs.");
 
@@ -120,35 +630,97 @@ public class Builder {
     private int buildExactStatus(final Result r) {
         LOGGER.log(Level.FINE, "Starting to build " + r.toString() + " jobs.");
 
-        ArrayList<Predicate<AbstractProject<?, ?>>> filters = new ArrayList<Predicate<AbstractProject<?, ?>>>();
+        int i = build(exactStatusFilters(r));
 
-        filters.add(new Predicate<AbstractProject<?, ?>>() {
-            @Override
-            public boolean apply(AbstractProject<?, ?> project) {
-                AbstractBuild<?, ?> build = project.getLastCompletedBuild();
-                return build != null && build.getResult() == r;
-            }
-        });
+        LOGGER.log(Level.FINE, "Finished building " + r.toString() + " jobs.");
 
-        filters = addSubFilters(filters);
+        return i;
+    }
 
-        int i = build(filters);
+    private ArrayList worseOrEqualsToFilters(final Result r) {
+        ArrayList<Predicate<Job<?, ?>>> filters = new ArrayList<Predicate<Job<?, ?>>>();
+        filters.add(Selector.term("status", ">=", r.toString()));
+        return addSubFilters(filters);
+    }
 
-        LOGGER.log(Level.FINE, "Finished building " + r.toString() + " jobs.");
+    private ArrayList exactStatusFilters(final Result r) {
+        ArrayList<Predicate<Job<?, ?>>> filters = new ArrayList<Predicate<Job<?, ?>>>();
+        filters.add(Selector.term("status", "=", r.toString()));
+        return addSubFilters(filters);
+    }
 
-        return i;
+    /**
+     * Filters selecting the projects of a build type
+     *
+     * @param type
+     * @return the filters, or null if the type does not select by status
+     */
+    private ArrayList getFilters(BuildType type) {
+        switch (type) {
+            case ABORTED:
+                return worseOrEqualsToFilters(Result.ABORTED);
+            case ALL:
+                return worseOrEqualsToFilters(Result.SUCCESS);
+            case FAILED:
+                return worseOrEqualsToFilters(Result.FAILURE);
+            case FAILED_ONLY:
+                return exactStatusFilters(Result.FAILURE);
+            case NOT_BUILD_ONLY:
+                return exactStatusFilters(Result.NOT_BUILT);
+            case NOT_BUILT:
+                return worseOrEqualsToFilters(Result.NOT_BUILT);
+            case UNSTABLE:
+                return worseOrEqualsToFilters(Result.UNSTABLE);
+            case UNSTABLE_ONLY:
+                return exactStatusFilters(Result.UNSTABLE);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Projects a build of the given type would schedule, without scheduling
+     * anything. Projects are selected lazily as the result is iterated.
+     *
+     * @param type
+     * @return
+     */
+    public final Iterable<Job<?, ?>> select(BuildType type) {
+        return select(type, null);
+    }
+
+    /**
+     * Projects a build of the given type would schedule, in full name order,
+     * starting after a given full name. Candidates before it are skipped on
+     * name alone, so resuming a selection does not evaluate the filters of
+     * earlier jobs again, and jobs added or removed meanwhile do not shift
+     * the remaining ones. Jobs are walked lazily in order, so taking a page
+     * does not collect or sort the rest of the selection.
+     *
+     * @param type
+     * @param after full name to resume after, or null to start at the beginning
+     * @return
+     */
+    public final Iterable<Job<?, ?>> select(BuildType type, final String after) {
+        ArrayList filters = getFilters(type);
+        if (filters == null) {
+            return Collections.emptyList();
+        }
+
+        View view = this.view == null ? null : Hudson.getInstance().getView(this.view);
+        Collection<? extends Item> roots = view == null ? Hudson.getInstance().getItems() : view.getItems();
+
+        Iterable<Job<?, ?>> candidates = Iterables.filter(new FullNameWalk(roots, after), BUILDABLE);
+        return Iterables.filter(candidates, Selector.allOf(filters));
     }
 
     private ArrayList addSubFilters(ArrayList filters) {
         if (this.pattern != null) {
-            Predicate<AbstractProject<?, ?>> patternPred = new Predicate<AbstractProject<?, ?>>() {
-                @Override
-                public boolean apply(AbstractProject<?, ?> project) {
-                    String patternReg = Builder.this.pattern.replaceAll("\\*", "\\.\\*");
-                    return Pattern.matches(patternReg, project.getDisplayName());
-                }
-            };
-            filters.add(patternPred);
+            filters.add(Selector.term("name", "~", this.pattern));
+        }
+
+        if (this.selector != null) {
+            filters.add(this.selector);
         }
 
         return filters;
@@ -220,106 +792,226 @@ public class Builder {
     }
 
     /**
-     * Return a list of projects which can be built
+     * Record the time spent enumerating candidates
+     */
+    private Iterable<Job<?, ?>> timed(final Iterable<Job<?, ?>> projects) {
+        return new Iterable<Job<?, ?>>() {
+            @Override
+            public Iterator<Job<?, ?>> iterator() {
+                final Iterator<Job<?, ?>> it = projects.iterator();
+                return new UnmodifiableIterator<Job<?, ?>>() {
+                    @Override
+                    public boolean hasNext() {
+                        long start = System.nanoTime();
+                        try {
+                            return it.hasNext();
+                        } finally {
+                            operation.addTime(Phase.ENUMERATION, System.nanoTime() - start);
+                        }
+                    }
+
+                    @Override
+                    public Job<?, ?> next() {
+                        long start = System.nanoTime();
+                        try {
+                            return it.next();
+                        } finally {
+                            operation.addTime(Phase.ENUMERATION, System.nanoTime() - start);
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Return the projects which can be built: jobs of any type which can be
+     * scheduled, such as freestyle, matrix and Pipeline jobs.
+     *
+     * Folders are walked lazily, so candidates are produced one at a time as
+     * the filters consume them rather than being collected up front.
      *
      * @return
      */
-    protected final List<AbstractProject<?, ?>> getProjects(String viewName) {
-
-        List<AbstractProject<?, ?>> projects = new ArrayList<AbstractProject<?, ?>>();
-        Collection<TopLevelItem> items = Hudson.getInstance().getItems();
+    protected final Iterable<Job<?, ?>> getProjects(String viewName) {
+        Iterable<Job<?, ?>> projects = null;
 
         if (viewName != null) {
             View view = Hudson.getInstance().getView(viewName);
 
             if (view != null) {
-                items = view.getItems();
+                projects = getViewProjects(view);
             }
         }
 
-         for (Job<?, ?> project : Util.createSubList(items, Job.class)) {
-            if (!project.isBuildable()) {
-                continue;
-            }
-            projects.add(project);
+        if (projects == null) {
+            projects = getAllProjects(Hudson.getInstance());
         }
 
-        return projects;
+        return Iterables.filter(projects, BUILDABLE);
+    }
+
+    /**
+     * All projects in a view, including those inside any folders it contains
+     */
+    private static Iterable<Job<?, ?>> getViewProjects(View view) {
+        Iterable<Iterable<Job<?, ?>>> nested = Iterables.transform(view.getItems(),
+                new Function<TopLevelItem, Iterable<Job<?, ?>>>() {
+            @Override
+            public Iterable<Job<?, ?>> apply(TopLevelItem item) {
+                if (item instanceof Job) {
+                    return Collections.<Job<?, ?>>singletonList((Job<?, ?>) item);
+                }
+                if (item instanceof ItemGroup) {
+                    return getAllProjects((ItemGroup<?>) item);
+                }
+                return Collections.emptyList();
+            }
+        });
+
+        // a recursive view may list both a folder and the jobs inside it
+        final Set<Job<?, ?>> seen = new HashSet<Job<?, ?>>();
+
+        return Iterables.filter(Iterables.concat(nested), new Predicate<Job<?, ?>>() {
+            @Override
+            public boolean apply(Job<?, ?> project) {
+                return seen.add(project);
+            }
+        });
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Iterable<Job<?, ?>> getAllProjects(ItemGroup<?> group) {
+        return (Iterable) Items.allItems(group, Job.class);
     }
 
+    /**
+     * Jobs of a kind the queue accepts, which are not disabled
+     */
+    private static final Predicate<Job<?, ?>> BUILDABLE = new Predicate<Job<?, ?>>() {
+        @Override
+        public boolean apply(Job<?, ?> project) {
+            return JobKind.of(project).isSchedulable() && project.isBuildable();
+        }
+    };
+
     /**
      * Actually build a project, passing in parameters where appropriate
      *
      * @param project
      * @return
      */
-    protected final boolean performBuildProject(AbstractProject<?, ?> project) {
-        if (!project.hasPermission(AbstractProject.BUILD)) {
-            LOGGER.log(Level.WARNING, "Insufficient permission to build job '" + project.getName() + "'");
+    protected final boolean performBuildProject(Job<?, ?> project) {
+        if (!project.hasPermission(Item.BUILD)) {
+            LOGGER.log(Level.WARNING, "Insufficient permission to build job ''{0}''", project.getFullName());
+            operation.skippedForPermission();
             return false;
         }
 
         if (action.equals(BuildAction.POLL_SCM)) {
-            project.schedulePolling();
+            long start = System.nanoTime();
+            PollingEngine.get().poll(project, operation);
+            operation.addTime(Phase.SCHEDULING, System.nanoTime() - start);
+            operation.scheduled();
             return true;
         }
 
-        // no user parameters provided, just build it
-        if (param == null) {
-            project.scheduleBuild(new Cause.UserCause());
-            return true;
+        if (activeTasks != null && activeTasks.isActive(JobKind.asTask(project))) {
+            if (duplicates == DuplicatePolicy.MERGE && param != null && mergeParameters(project)) {
+                LOGGER.log(Level.FINE, "Merged parameters into queued build of ''{0}''", project.getFullName());
+                operation.merged();
+                return true;
+            }
+            LOGGER.log(Level.FINE, "Job ''{0}'' is already queued or building", project.getFullName());
+            operation.skippedActive();
+            return false;
         }
 
-        ParametersDefinitionProperty pp = (ParametersDefinitionProperty) project
-                .getProperty(ParametersDefinitionProperty.class);
-
-        // project does not except any parameters, just build it
-        if (pp == null) {
-            project.scheduleBuild(new Cause.UserCause());
-            return true;
+        if (scheduler == null) {
+            scheduler = new BatchScheduler(operation, 1, hold);
         }
 
-        List<ParameterDefinition> parameterDefinitions = pp.getParameterDefinitions();
-        List<ParameterValue> values = new ArrayList<ParameterValue>();
+        long start = System.nanoTime();
+        ScheduleRequest request = createScheduleRequest(project);
+        operation.addTime(Phase.PARAMETERS, System.nanoTime() - start);
 
-        for (ParameterDefinition paramDef : parameterDefinitions) {
-            ParameterValue value;
+        if (waves != null) {
+            waves.add(request);
+        } else {
+            scheduler.add(request);
+        }
+        return true;
+    }
 
-            // Check if user supplied the parameter. If not, then use the default value.
-            if (paramDef instanceof BooleanParameterDefinition) {
-                BooleanParameterDefinition boolParaDef = (BooleanParameterDefinition) paramDef;
-                // Did user supply this parameter?
-                if (this.userParams.containsKey(paramDef.getName())) {
-                    value = boolParaDef.createValue(this.userParams.get(boolParaDef.getName()));
-                } else {
-                    value = boolParaDef.getDefaultParameterValue();
-                }
-            } else if (paramDef instanceof ChoiceParameterDefinition) {
-                ChoiceParameterDefinition choiceParaDef = (ChoiceParameterDefinition) paramDef;
-                // Did user supply this parameter?
-                if (this.userParams.containsKey(paramDef.getName())) {
-                    value = choiceParaDef.createValue(this.userParams.get(choiceParaDef.getName()));
-                } else {
-                    value = choiceParaDef.createValue(choiceParaDef.getDefaultParameterValue().value);
-                }
-            } else if (paramDef instanceof StringParameterDefinition) {
-                StringParameterDefinition stringParamDef = (StringParameterDefinition) paramDef;
-                if (userParams.containsKey(paramDef.getName())) {
-                    value = stringParamDef.createValue(userParams.get(stringParamDef.getName()));
-                } else {
-                    value = stringParamDef.createValue(stringParamDef.getDefaultValue());
+    /**
+     * Apply the user's parameter values to a project's queued item, unless
+     * it has already been handed to an executor
+     *
+     * @param project
+     * @return true if the queued item was updated
+     */
+    private boolean mergeParameters(final Job<?, ?> project) {
+        final ParametersDefinitionProperty pp = project.getProperty(ParametersDefinitionProperty.class);
+        if (pp == null) {
+            return false;
+        }
+
+        final ParametersAction values = new ParametersAction(ParameterPlan.compile(pp.getParameterDefinitions()).apply(param));
+        final boolean[] merged = new boolean[1];
+        Queue.withLock(new Runnable() {
+            public void run() {
+                Queue.Item item = Hudson.getInstance().getQueue().getItem(JobKind.asTask(project));
+                if (item == null || item instanceof Queue.BuildableItem && ((Queue.BuildableItem) item).isPending()) {
+                    return;
                 }
-            } else {
-                // TODO add support for other parameter types
-                value = paramDef.getDefaultParameterValue();
-                continue;
+                ParametersAction existing = item.getAction(ParametersAction.class);
+                item.replaceAction(existing == null ? values : existing.merge(values));
+                merged[0] = true;
             }
-            LOGGER.log(Level.INFO, "Parameter Value = " + value.toString());
-            values.add(value);
+        });
+        return merged[0];
+    }
+
+    /**
+     * Resolve the parameters and other actions to schedule a project with
+     *
+     * @param project
+     * @return
+     */
+    private ScheduleRequest createScheduleRequest(Job<?, ?> project) {
+        ParametersDefinitionProperty pp = project.getProperty(ParametersDefinitionProperty.class);
+        ParameterPlan plan = pp == null ? null : ParameterPlan.compile(pp.getParameterDefinitions());
+
+        // no user parameters provided, or project does not accept any
+        // parameters, just build it
+        if (param == null || plan == null) {
+            List<Action> actions = getDefaultActions(plan);
+            actions.add(new BulkOperationAction(operation.getId()));
+            return new ScheduleRequest(JobKind.asTask(project), JobKind.getQuietPeriod(project), actions);
         }
 
-        Hudson.getInstance().getQueue().schedule(pp.getOwner(), 1, new ParametersAction(values));
-        return true;
+        List<Action> actions = new ArrayList<Action>(2);
+        actions.add(new ParametersAction(plan.apply(param)));
+        actions.add(new BulkOperationAction(operation.getId()));
+        return new ScheduleRequest(JobKind.asTask(project), 1, actions);
+    }
+
+    /**
+     * Actions for a build triggered by the user, with default parameter
+     * values where the project is parameterized
+     *
+     * @param plan the project's parameter plan, or null if not parameterized
+     * @return
+     */
+    private static List<Action> getDefaultActions(ParameterPlan plan) {
+        List<Action> actions = new ArrayList<Action>(3);
+        actions.add(new CauseAction(new Cause.UserIdCause()));
+
+        if (plan != null) {
+            actions.add(new ParametersAction(plan.defaults()));
+        }
+
+        return actions;
     }
 
 }
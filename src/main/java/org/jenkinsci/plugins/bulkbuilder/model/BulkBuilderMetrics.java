@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.Hudson;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.bulkbuilder.model.BulkOperation.Phase;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Aggregate counters and timing histograms over all finished bulk
+ * operations, exported through the remote API and JMX.
+ *
+ * @author simon
+ */
+@ExportedBean
+@Extension
+public class BulkBuilderMetrics implements BulkBuilderMetricsMBean {
+
+    private static final Logger LOGGER = Logger.getLogger(BulkBuilderMetrics.class.getName());
+
+    static final String OBJECT_NAME = "org.jenkinsci.plugins.bulkbuilder:type=BulkBuilderMetrics";
+
+    private final AtomicLong operations = new AtomicLong();
+
+    private final AtomicLong failedOperations = new AtomicLong();
+
+    private final AtomicLong evaluated = new AtomicLong();
+
+    private final AtomicLong matched = new AtomicLong();
+
+    private final AtomicLong skippedForPermission = new AtomicLong();
+
+    private final AtomicLong scheduled = new AtomicLong();
+
+    private final Histogram total = new Histogram();
+
+    private final Histogram[] phases = new Histogram[Phase.values().length];
+
+    public BulkBuilderMetrics() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Histogram();
+        }
+    }
+
+    public static BulkBuilderMetrics get() {
+        return Hudson.getInstance().getExtensionList(BulkBuilderMetrics.class).get(0);
+    }
+
+    /**
+     * Record a finished operation
+     *
+     * @param operation
+     */
+    static void record(BulkOperation operation) {
+        if (Jenkins.getInstanceOrNull() == null) {
+            return;
+        }
+        get().add(operation);
+    }
+
+    private void add(BulkOperation operation) {
+        operations.incrementAndGet();
+        if (operation.getStatus() == BulkOperation.Status.FAILED) {
+            failedOperations.incrementAndGet();
+        }
+        evaluated.addAndGet(operation.getEvaluated());
+        matched.addAndGet(operation.getMatched());
+        skippedForPermission.addAndGet(operation.getSkippedForPermission());
+        scheduled.addAndGet(operation.getScheduled());
+
+        total.record(operation.getElapsedMillis());
+        for (Phase phase : Phase.values()) {
+            phases[phase.ordinal()].record(operation.getPhaseMillis(phase));
+        }
+    }
+
+    @Exported
+    public long getOperations() {
+        return operations.get();
+    }
+
+    @Exported
+    public long getFailedOperations() {
+        return failedOperations.get();
+    }
+
+    @Exported
+    public long getJobsEvaluated() {
+        return evaluated.get();
+    }
+
+    @Exported
+    public long getJobsMatched() {
+        return matched.get();
+    }
+
+    @Exported
+    public long getJobsSkippedForPermission() {
+        return skippedForPermission.get();
+    }
+
+    @Exported
+    public long getJobsScheduled() {
+        return scheduled.get();
+    }
+
+    /**
+     * Wall clock duration of operations
+     *
+     * @return
+     */
+    @Exported
+    public Histogram getDuration() {
+        return total;
+    }
+
+    /**
+     * Time spent per phase of operations
+     *
+     * @return
+     */
+    @Exported
+    public Map<String, Histogram> getPhases() {
+        Map<String, Histogram> result = new LinkedHashMap<String, Histogram>();
+        for (Phase phase : Phase.values()) {
+            result.put(phase.name(), phases[phase.ordinal()]);
+        }
+        return result;
+    }
+
+    public double getMeanMillis() {
+        return total.getMeanMillis();
+    }
+
+    public long getMaxMillis() {
+        return total.getMaxMillis();
+    }
+
+    public double getEnumerationMeanMillis() {
+        return phases[Phase.ENUMERATION.ordinal()].getMeanMillis();
+    }
+
+    public double getFilteringMeanMillis() {
+        return phases[Phase.FILTERING.ordinal()].getMeanMillis();
+    }
+
+    public double getParametersMeanMillis() {
+        return phases[Phase.PARAMETERS.ordinal()].getMeanMillis();
+    }
+
+    public double getSchedulingMeanMillis() {
+        return phases[Phase.SCHEDULING.ordinal()].getMeanMillis();
+    }
+
+    public long getSchedulingMaxMillis() {
+        return phases[Phase.SCHEDULING.ordinal()].getMaxMillis();
+    }
+
+    @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED)
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(get(), name);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Failed to register bulk builder metrics with JMX", e);
+        }
+    }
+
+    @Terminator
+    public static void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.FINE, "Failed to unregister bulk builder metrics from JMX", e);
+        }
+    }
+}
@@ -0,0 +1,695 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.Api;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Progress of a single bulk build/SCM poll request.
+ *
+ * Counters are updated by the thread running the {@link Builder} and may be
+ * read at any time from request threads.
+ *
+ * @author simon
+ */
+@ExportedBean
+public class BulkOperation {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    public enum Phase {
+        /**
+         * Walking the item tree for candidate jobs
+         */
+        ENUMERATION,
+
+        /**
+         * Evaluating the selection filters
+         */
+        FILTERING,
+
+        /**
+         * Ordering the selected jobs before scheduling
+         */
+        ORDERING,
+
+        /**
+         * Resolving parameters and actions for selected jobs
+         */
+        PARAMETERS,
+
+        /**
+         * Inserting builds into the queue, or scheduling polls
+         */
+        SCHEDULING
+    }
+
+    /**
+     * Number of batches to keep timings for
+     */
+    static final int MAX_BATCHES = 200;
+
+    private final String id = UUID.randomUUID().toString();
+
+    private final BuildAction action;
+
+    private volatile String owner;
+
+    private volatile BuildType type;
+
+    private volatile Status status = Status.QUEUED;
+
+    private final long created = System.currentTimeMillis();
+
+    private volatile long started;
+
+    private volatile long finished;
+
+    private volatile String error;
+
+    private volatile RateLimiter rateLimiter;
+
+    private volatile BuildOrder order = BuildOrder.NATURAL;
+
+    private volatile long naiveMakespan = -1;
+
+    private volatile long estimatedMakespan = -1;
+
+    /**
+     * Builds accepted into the queue, by assigned label name
+     */
+    private final ConcurrentMap<String, AtomicInteger> admitted = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final AtomicInteger evaluated = new AtomicInteger();
+
+    private final AtomicInteger matched = new AtomicInteger();
+
+    private final AtomicInteger scheduled = new AtomicInteger();
+
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    private final AtomicInteger skippedForPermission = new AtomicInteger();
+
+    private final AtomicInteger skippedActive = new AtomicInteger();
+
+    private final AtomicInteger merged = new AtomicInteger();
+
+    private final AtomicInteger pruned = new AtomicInteger();
+
+    /**
+     * Polls submitted to the {@link PollingEngine} and not yet finished
+     */
+    private final AtomicInteger polling = new AtomicInteger();
+
+    private final PollingSummary pollingSummary;
+
+    private volatile WaveScheduler waves;
+
+    private final AtomicInteger held = new AtomicInteger();
+
+    private volatile boolean cancelled;
+
+    /**
+     * Builds dropped or removed from the queue because of {@link #cancel()}
+     */
+    private final AtomicInteger cancelledBuilds = new AtomicInteger();
+
+    /**
+     * Has the builder finished handing out jobs?
+     */
+    private volatile boolean selectionFinished;
+
+    /**
+     * Accumulated nanoseconds, indexed by {@link Phase#ordinal()}
+     */
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+
+    /**
+     * Most recent queue insertion batches
+     */
+    private final LinkedList<BatchStats> batches = new LinkedList<BatchStats>();
+
+    public BulkOperation(BuildAction action) {
+        this.action = action;
+        this.pollingSummary = action == BuildAction.POLL_SCM ? new PollingSummary() : null;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Exported
+    public final String getId() {
+        return id;
+    }
+
+    @Exported
+    public final BuildAction getAction() {
+        return action;
+    }
+
+    /**
+     * Name of the user the operation was submitted by
+     *
+     * @return the name, or null if not submitted through the
+     * {@link BulkOperationManager}
+     */
+    @Exported
+    public final String getOwner() {
+        return owner;
+    }
+
+    final void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * May the current user see and cancel this operation? Only the user who
+     * submitted it and administrators may.
+     *
+     * @return
+     */
+    public final boolean hasCancelPermission() {
+        if (Jenkins.get().hasPermission(Jenkins.ADMINISTER)) {
+            return true;
+        }
+        return owner != null && owner.equals(Jenkins.getAuthentication2().getName());
+    }
+
+    @Exported
+    public final BuildType getType() {
+        return type;
+    }
+
+    final void setType(BuildType type) {
+        this.type = type;
+    }
+
+    @Exported
+    public final Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Is this operation still queued or running?
+     *
+     * @return
+     */
+    public final boolean isActive() {
+        return status == Status.QUEUED || status == Status.RUNNING;
+    }
+
+    /**
+     * Has {@link #cancel()} been called?
+     *
+     * @return
+     */
+    @Exported
+    public final boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Number of builds dropped before reaching the queue, or removed from
+     * it, because the operation was cancelled
+     *
+     * @return
+     */
+    @Exported
+    public final int getCancelledBuilds() {
+        return cancelledBuilds.get();
+    }
+
+    @Exported
+    public final long getCreated() {
+        return created;
+    }
+
+    /**
+     * Wall clock time spent running, or so far if still running
+     *
+     * @return
+     */
+    @Exported
+    public final long getElapsedMillis() {
+        if (started == 0) {
+            return 0;
+        }
+        return (finished == 0 ? System.currentTimeMillis() : finished) - started;
+    }
+
+    @Exported
+    public final String getError() {
+        return error;
+    }
+
+    /**
+     * Number of jobs the selection filters have been applied to
+     *
+     * @return
+     */
+    @Exported
+    public final int getEvaluated() {
+        return evaluated.get();
+    }
+
+    /**
+     * Number of jobs the selection filters matched
+     *
+     * @return
+     */
+    @Exported
+    public final int getMatched() {
+        return matched.get();
+    }
+
+    /**
+     * Number of jobs handed to the build queue or polled
+     *
+     * @return
+     */
+    @Exported
+    public final int getScheduled() {
+        return scheduled.get();
+    }
+
+    /**
+     * Number of selected jobs which could not be scheduled
+     *
+     * @return
+     */
+    @Exported
+    public final int getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Number of selected jobs the user was not allowed to build
+     *
+     * @return
+     */
+    @Exported
+    public final int getSkippedForPermission() {
+        return skippedForPermission.get();
+    }
+
+    /**
+     * Number of selected jobs skipped as already queued or building
+     *
+     * @return
+     */
+    @Exported
+    public final int getSkippedActive() {
+        return skippedActive.get();
+    }
+
+    /**
+     * Number of selected jobs whose queued item took the user's parameters
+     * instead of a new build being scheduled
+     *
+     * @return
+     */
+    @Exported
+    public final int getMerged() {
+        return merged.get();
+    }
+
+    /**
+     * Outcomes of the SCM polls of a {@link BuildAction#POLL_SCM} operation
+     *
+     * @return the summary, or null for other actions
+     */
+    @Exported
+    public final PollingSummary getPolling() {
+        return pollingSummary;
+    }
+
+    /**
+     * Progress of the waves builds are released in
+     *
+     * @return the waves, or null if builds are not released in waves
+     */
+    @Exported
+    public final WaveScheduler getWaves() {
+        return waves;
+    }
+
+    final void setWaves(WaveScheduler waves) {
+        this.waves = waves;
+    }
+
+    /**
+     * Number of selected jobs left out because another selected job
+     * triggers them
+     *
+     * @return
+     */
+    @Exported
+    public final int getPruned() {
+        return pruned.get();
+    }
+
+    /**
+     * Number of jobs waiting in the {@link HoldingQueue}
+     *
+     * @return
+     */
+    @Exported
+    public final int getHeld() {
+        return held.get();
+    }
+
+    /**
+     * Time spent per phase, in milliseconds
+     *
+     * @return
+     */
+    @Exported
+    public final Map<String, Long> getPhases() {
+        Map<String, Long> phases = new LinkedHashMap<String, Long>();
+        for (Phase phase : Phase.values()) {
+            phases.put(phase.name(), getPhaseMillis(phase));
+        }
+        return phases;
+    }
+
+    /**
+     * Time spent in a phase, in milliseconds. Filtering time is summed over
+     * all threads when filters are evaluated in parallel.
+     *
+     * @param phase
+     * @return
+     */
+    public final long getPhaseMillis(Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(phaseNanos.get(phase.ordinal()));
+    }
+
+    /**
+     * State of the rate limiter, if scheduling is rate limited
+     *
+     * @return the limiter, or null
+     */
+    @Exported
+    public final RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    final void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Order the selected jobs were scheduled in
+     *
+     * @return
+     */
+    @Exported
+    public final BuildOrder getOrder() {
+        return order;
+    }
+
+    /**
+     * Estimated makespan had the selected jobs been scheduled in the order
+     * they were found
+     *
+     * @return milliseconds, or -1 if the jobs were not ordered
+     */
+    @Exported
+    public final long getNaiveMakespanMillis() {
+        return naiveMakespan;
+    }
+
+    /**
+     * Estimated makespan of the selected jobs in the order scheduled
+     *
+     * @return milliseconds, or -1 if the jobs were not ordered
+     */
+    @Exported
+    public final long getEstimatedMakespanMillis() {
+        return estimatedMakespan;
+    }
+
+    final void setOrder(BuildOrder order) {
+        this.order = order;
+    }
+
+    /**
+     * Builds accepted into the queue by assigned label, with jobs without
+     * a label under {@value LabelSpreading#ANY_LABEL}
+     *
+     * @return
+     */
+    @Exported
+    public final Map<String, Integer> getAdmittedByLabel() {
+        Map<String, Integer> result = new TreeMap<String, Integer>();
+        for (Map.Entry<String, AtomicInteger> entry : admitted.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    final void admitted(String label) {
+        AtomicInteger count = admitted.get(label);
+        if (count == null) {
+            AtomicInteger existing = admitted.putIfAbsent(label, count = new AtomicInteger());
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    final void setMakespan(long naive, long estimated) {
+        this.naiveMakespan = naive;
+        this.estimatedMakespan = estimated;
+    }
+
+    /**
+     * Timing of the most recent queue insertion batches
+     *
+     * @return
+     */
+    @Exported
+    public final List<BatchStats> getBatches() {
+        synchronized (batches) {
+            return new ArrayList<BatchStats>(batches);
+        }
+    }
+
+    final synchronized void started() {
+        if (status != Status.QUEUED) {
+            return;
+        }
+        started = System.currentTimeMillis();
+        status = Status.RUNNING;
+    }
+
+    /**
+     * Stop scheduling further builds and remove the builds this operation
+     * has held back or waiting in the queue. Builds already running are left
+     * alone. May be called again after the operation finished to purge
+     * anything it left in the queue.
+     *
+     * @return number of builds removed
+     */
+    public final int cancel() {
+        cancelled = true;
+
+        int removed = HoldingQueue.get().purge(this);
+        WaveScheduler w = waves;
+        if (w != null) {
+            removed += w.cancel();
+        }
+        removed += QueueItemIndex.get().cancel(id);
+        cancelled(removed);
+
+        synchronized (this) {
+            if (!isActive()) {
+                return removed;
+            }
+            finished = System.currentTimeMillis();
+            status = Status.CANCELLED;
+        }
+        BulkBuilderMetrics.record(this);
+        return removed;
+    }
+
+    /**
+     * The builder is done; the operation completes once nothing is held
+     */
+    final void completed() {
+        selectionFinished = true;
+        finishIfIdle();
+    }
+
+    /**
+     * Finish once selection is over and no builds are held or polls running
+     */
+    private void finishIfIdle() {
+        if (selectionFinished && held.get() == 0 && polling.get() == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        synchronized (this) {
+            if (status != Status.RUNNING) {
+                return;
+            }
+            finished = System.currentTimeMillis();
+            status = cancelled ? Status.CANCELLED : Status.COMPLETED;
+        }
+        BulkBuilderMetrics.record(this);
+    }
+
+    /**
+     * Stop the operation before all selected jobs were scheduled
+     *
+     * @param reason
+     */
+    final void aborted(String reason) {
+        synchronized (this) {
+            if (status != Status.RUNNING) {
+                return;
+            }
+            finished = System.currentTimeMillis();
+            error = reason;
+            status = Status.FAILED;
+        }
+        BulkBuilderMetrics.record(this);
+    }
+
+    final void failed(Throwable t) {
+        synchronized (this) {
+            if (!isActive()) {
+                return;
+            }
+            finished = System.currentTimeMillis();
+            error = t.toString();
+            status = Status.FAILED;
+        }
+        BulkBuilderMetrics.record(this);
+    }
+
+    final void evaluated() {
+        evaluated.incrementAndGet();
+    }
+
+    final void matched() {
+        matched.incrementAndGet();
+    }
+
+    final void matched(int count) {
+        matched.addAndGet(count);
+    }
+
+    final void scheduled() {
+        scheduled.incrementAndGet();
+    }
+
+    final void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    final void skippedForPermission() {
+        skippedForPermission.incrementAndGet();
+    }
+
+    final void skippedActive() {
+        skippedActive.incrementAndGet();
+    }
+
+    final void merged() {
+        merged.incrementAndGet();
+    }
+
+    final void pruned(int count) {
+        pruned.addAndGet(count);
+    }
+
+    final void cancelled(int count) {
+        cancelledBuilds.addAndGet(count);
+    }
+
+    final void held(int count) {
+        held.addAndGet(count);
+    }
+
+    final void released(int count) {
+        if (held.addAndGet(-count) == 0) {
+            finishIfIdle();
+        }
+    }
+
+    final void pollStarted() {
+        polling.incrementAndGet();
+    }
+
+    final void pollFinished() {
+        if (polling.decrementAndGet() == 0) {
+            finishIfIdle();
+        }
+    }
+
+    final void addTime(Phase phase, long nanos) {
+        phaseNanos.addAndGet(phase.ordinal(), nanos);
+    }
+
+    final void addBatch(BatchStats batch) {
+        synchronized (batches) {
+            batches.addLast(batch);
+            if (batches.size() > MAX_BATCHES) {
+                batches.removeFirst();
+            }
+        }
+    }
+
+    @Override
+    public final String toString() {
+        return id;
+    }
+}
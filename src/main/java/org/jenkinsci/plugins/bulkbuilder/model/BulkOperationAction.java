@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Queue;
+
+/**
+ * Marks queue items, and the builds they become, as scheduled by a bulk
+ * operation.
+ *
+ * @author simon
+ */
+public class BulkOperationAction extends InvisibleAction {
+
+    private final String operationId;
+
+    public BulkOperationAction(String operationId) {
+        this.operationId = operationId;
+    }
+
+    /**
+     * ID of the {@link BulkOperation} which scheduled the build
+     *
+     * @return
+     */
+    public final String getOperationId() {
+        return operationId;
+    }
+
+    /**
+     * Get the operation which scheduled a queue item
+     *
+     * @param item
+     * @return the operation ID, or null if not scheduled by a bulk operation
+     */
+    public static String of(Queue.Item item) {
+        BulkOperationAction action = item.getAction(BulkOperationAction.class);
+        return action == null ? null : action.getOperationId();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Runs bulk operations on a bounded pool of background threads and keeps
+ * track of recent operations so their progress can be queried.
+ *
+ * @author simon
+ */
+@Extension
+public class BulkOperationManager {
+
+    private static final Logger LOGGER = Logger.getLogger(BulkOperationManager.class.getName());
+
+    /**
+     * Number of operations allowed to run at the same time
+     */
+    static final int THREADS = SystemProperties.getInteger(BulkOperationManager.class.getName() + ".threads", 2);
+
+    /**
+     * Number of operations allowed to wait for a free thread
+     */
+    static final int BACKLOG = SystemProperties.getInteger(BulkOperationManager.class.getName() + ".backlog", 10);
+
+    /**
+     * Number of operations to remember. Active operations are never
+     * forgotten, so more are kept while more than this many are active.
+     */
+    static final int HISTORY = 50;
+
+    private final ExecutorService executor;
+
+    private final Map<String, BulkOperation> operations = new LinkedHashMap<String, BulkOperation>();
+
+    public BulkOperationManager() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(BACKLOG),
+                new NamingThreadFactory(new DaemonThreadFactory(), "BulkBuilder.operation"));
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    public static BulkOperationManager get() {
+        return Hudson.getInstance().getExtensionList(BulkOperationManager.class).get(0);
+    }
+
+    /**
+     * Queue the builder to run in the background as the current user.
+     *
+     * @param builder
+     * @param type
+     * @return the operation tracking the builder's progress
+     * @throws RejectedExecutionException if too many operations are waiting
+     */
+    public BulkOperation submit(final Builder builder, final BuildType type) {
+        final BulkOperation operation = builder.getOperation();
+        final Authentication auth = Jenkins.getAuthentication2();
+        operation.setOwner(auth.getName());
+
+        synchronized (operations) {
+            operations.put(operation.getId(), operation);
+            forgetOldest();
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try (ACLContext ctx = ACL.as2(auth)) {
+                        builder.build(type);
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Bulk operation " + operation + " failed", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (operations) {
+                operations.remove(operation.getId());
+            }
+            throw e;
+        }
+
+        return operation;
+    }
+
+    /**
+     * Forget the oldest inactive operations beyond {@link #HISTORY}, skipping
+     * over any still active; the caller holds the lock on the operations
+     */
+    private void forgetOldest() {
+        for (Iterator<BulkOperation> it = operations.values().iterator(); operations.size() > HISTORY && it.hasNext();) {
+            if (!it.next().isActive()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Look up a recent operation
+     *
+     * @param id
+     * @return the operation, or null if unknown or forgotten
+     */
+    public BulkOperation getOperation(String id) {
+        synchronized (operations) {
+            return operations.get(id);
+        }
+    }
+
+    /**
+     * Recent operations, newest first
+     *
+     * @return
+     */
+    public List<BulkOperation> getOperations() {
+        List<BulkOperation> list;
+        synchronized (operations) {
+            list = new ArrayList<BulkOperation>(operations.values());
+        }
+        Collections.reverse(list);
+        return list;
+    }
+}
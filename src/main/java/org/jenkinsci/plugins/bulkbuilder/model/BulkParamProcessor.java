@@ -24,9 +24,11 @@
 
 package org.jenkinsci.plugins.bulkbuilder.model;
 
-import java.util.HashMap;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,44 +40,44 @@ public class BulkParamProcessor {
     private static final Logger LOGGER = Logger
 	    .getLogger(BulkParamProcessor.class.getName());
 
-    private String rawParams;
+    private static final Joiner MULTI_VALUE = Joiner.on(',');
+
+    private final ParameterParser parser;
 
     public BulkParamProcessor(String params) {
-	this.rawParams = params;
+	this.parser = ParameterParser.parse(params);
     }
 
     /**
-     * Process and return input parameter string
+     * Process and return input parameter string. Values of a parameter
+     * given more than once are joined with commas.
      *
      * @return
      */
     public Map<String, String> getProjectParams() {
-	if (rawParams == null) {
+	if (parser.getValues().isEmpty()) {
 	    return null;
 	}
 
-	StringTokenizer tokeniser = new StringTokenizer(rawParams, "&");
-
-	Map<String, String> values = new HashMap<String, String>(
-		tokeniser.countTokens());
-
-	while (tokeniser.hasMoreTokens()) {
-	    String rawParam = tokeniser.nextToken();
-
-	    String[] split = rawParam.split("=");
-	    if (split.length == 2) {
-		values.put(split[0], split[1]);
-
-		if (LOGGER.isLoggable(Level.INFO)) {
-		    LOGGER.log(Level.INFO, "Added {0}", split);
-		}
-	    }
+	ImmutableMap.Builder<String, String> values = ImmutableMap.builder();
+	for (Map.Entry<String, Collection<String>> entry : parser.getValues().asMap().entrySet()) {
+	    Collection<String> v = entry.getValue();
+	    values.put(entry.getKey(), v.size() == 1 ? v.iterator().next() : MULTI_VALUE.join(v));
 	}
 
-	if (values.isEmpty()) {
-	    return null;
+	if (LOGGER.isLoggable(Level.FINE)) {
+	    LOGGER.log(Level.FINE, "Parsed {0} parameters", parser.getValues().keySet().size());
 	}
 
-	return values;
+	return values.build();
+    }
+
+    /**
+     * Segments of the input parameter string that could not be parsed
+     *
+     * @return
+     */
+    public List<String> getMalformed() {
+	return parser.getMalformed();
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.AbstractProject;
+import hudson.model.DependencyGraph;
+import hudson.model.Job;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes selected jobs which another selected job will trigger anyway.
+ *
+ * Selected jobs are visited in the topological order of the dependency
+ * graph. A job reachable downstream of one already kept, through enabled
+ * jobs, is dropped; otherwise it is kept and everything downstream of it is
+ * marked as covered. Each job in the graph is expanded at most once. Jobs in
+ * a cycle cover each other, so the first one visited is kept. Triggers are
+ * assumed to fire whatever the result of the upstream build.
+ *
+ * A kept job may still not be scheduled, for lack of permission or because
+ * it is already active. Once scheduling is over, {@link #uncovered} gives
+ * back the dropped jobs which no scheduled job triggers, to be pruned and
+ * scheduled in turn.
+ *
+ * @author simon
+ */
+final class DependencyPruning {
+
+    private final DependencyGraph graph;
+
+    private final List<Job<?, ?>> roots;
+
+    private final List<AbstractProject<?, ?>> pruned;
+
+    private DependencyPruning(DependencyGraph graph, List<Job<?, ?>> roots, List<AbstractProject<?, ?>> pruned) {
+        this.graph = graph;
+        this.roots = roots;
+        this.pruned = pruned;
+    }
+
+    /**
+     * Selected jobs not triggered by another, in topological order
+     *
+     * @return
+     */
+    List<Job<?, ?>> getRoots() {
+        return roots;
+    }
+
+    /**
+     * Number of selected jobs removed
+     *
+     * @return
+     */
+    int getPruned() {
+        return pruned.size();
+    }
+
+    /**
+     * Removed jobs not triggered by any of the roots actually scheduled, in
+     * topological order
+     *
+     * @param scheduled roots which were scheduled
+     * @return
+     */
+    List<Job<?, ?>> uncovered(Collection<Job<?, ?>> scheduled) {
+        if (pruned.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Set<AbstractProject<?, ?>> covered = new HashSet<AbstractProject<?, ?>>();
+        Deque<AbstractProject<?, ?>> pending = new ArrayDeque<AbstractProject<?, ?>>();
+        for (Job<?, ?> job : scheduled) {
+            AbstractProject<?, ?> project = JobKind.asProject(job);
+            if (project != null) {
+                pending.add(project);
+            }
+        }
+        expand(graph, pending, covered);
+
+        List<Job<?, ?>> uncovered = new ArrayList<Job<?, ?>>();
+        for (AbstractProject<?, ?> project : pruned) {
+            if (!covered.contains(project)) {
+                uncovered.add(project);
+            }
+        }
+        return uncovered;
+    }
+
+    /**
+     * Mark everything downstream of the pending jobs, through enabled jobs,
+     * as covered
+     */
+    private static void expand(DependencyGraph graph, Deque<AbstractProject<?, ?>> pending,
+            Set<AbstractProject<?, ?>> covered) {
+        while (!pending.isEmpty()) {
+            for (AbstractProject<?, ?> downstream : graph.getDownstream(pending.poll())) {
+                if (!downstream.isDisabled() && covered.add(downstream)) {
+                    pending.add(downstream);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prune selected jobs against a dependency graph. Jobs outside the graph,
+     * such as Pipelines, can be neither triggered nor covered, so they are
+     * all kept, after the graph's jobs.
+     *
+     * @param selected
+     * @param graph
+     * @return
+     */
+    static DependencyPruning prune(List<Job<?, ?>> selected, DependencyGraph graph) {
+        List<AbstractProject<?, ?>> sorted = new ArrayList<AbstractProject<?, ?>>(selected.size());
+        List<Job<?, ?>> outside = new ArrayList<Job<?, ?>>();
+        for (Job<?, ?> job : selected) {
+            AbstractProject<?, ?> project = JobKind.asProject(job);
+            if (project != null) {
+                sorted.add(project);
+            } else {
+                outside.add(job);
+            }
+        }
+        Collections.sort(sorted, graph);
+
+        Set<AbstractProject<?, ?>> covered = new HashSet<AbstractProject<?, ?>>();
+        List<Job<?, ?>> roots = new ArrayList<Job<?, ?>>();
+        List<AbstractProject<?, ?>> pruned = new ArrayList<AbstractProject<?, ?>>();
+        Deque<AbstractProject<?, ?>> pending = new ArrayDeque<AbstractProject<?, ?>>();
+
+        for (AbstractProject<?, ?> project : sorted) {
+            if (covered.contains(project)) {
+                pruned.add(project);
+                continue;
+            }
+            roots.add(project);
+
+            pending.add(project);
+            expand(graph, pending, covered);
+        }
+        roots.addAll(outside);
+
+        return new DependencyPruning(graph, roots, pruned);
+    }
+}
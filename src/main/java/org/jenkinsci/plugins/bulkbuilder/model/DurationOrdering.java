@@ -0,0 +1,219 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.Job;
+import hudson.model.Label;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Orders selected jobs by estimated duration, longest first, to shorten the
+ * time until the last of them finishes (the makespan).
+ *
+ * Durations come from the {@link LastResultIndex}, so ordering does not read
+ * build records; only jobs not indexed yet fall back to
+ * {@link Job#getEstimatedDuration()}.
+ *
+ * Starting long jobs first stops a few of them being left to run alone at
+ * the end. The makespan of an order is estimated by assigning each job, in
+ * order, to the executor of its label which frees up first. Labels sharing
+ * nodes are treated as independent, so the estimate is only a guide.
+ *
+ * @author simon
+ */
+final class DurationOrdering {
+
+    private final List<Job<?, ?>> order;
+
+    private final long naiveMakespan;
+
+    private final long orderedMakespan;
+
+    private DurationOrdering(List<Job<?, ?>> order, long naiveMakespan, long orderedMakespan) {
+        this.order = order;
+        this.naiveMakespan = naiveMakespan;
+        this.orderedMakespan = orderedMakespan;
+    }
+
+    /**
+     * Jobs in the chosen order
+     *
+     * @return
+     */
+    List<Job<?, ?>> getOrder() {
+        return order;
+    }
+
+    /**
+     * Estimated makespan of the jobs in the order they were selected
+     *
+     * @return milliseconds
+     */
+    long getNaiveMakespan() {
+        return naiveMakespan;
+    }
+
+    /**
+     * Estimated makespan of the jobs in the chosen order
+     *
+     * @return milliseconds
+     */
+    long getOrderedMakespan() {
+        return orderedMakespan;
+    }
+
+    /**
+     * Order selected jobs
+     *
+     * @param projects jobs in the order they were selected
+     * @param byLabel take turns between labels rather than sorting globally
+     * @return
+     */
+    static DurationOrdering order(List<Job<?, ?>> projects, boolean byLabel) {
+        LastResultIndex index = LastResultIndex.get();
+        final Map<Job<?, ?>, Long> durations = new HashMap<Job<?, ?>, Long>();
+        for (Job<?, ?> project : projects) {
+            long duration = index.getIndexedDuration(project);
+            if (duration < 0) {
+                duration = Math.max(0, project.getEstimatedDuration());
+            }
+            durations.put(project, duration);
+        }
+
+        Comparator<Job<?, ?>> longestFirst = new Comparator<Job<?, ?>>() {
+            public int compare(Job<?, ?> a, Job<?, ?> b) {
+                return Long.compare(durations.get(b), durations.get(a));
+            }
+        };
+
+        List<Job<?, ?>> ordered;
+        if (byLabel) {
+            Map<Label, List<Job<?, ?>>> groups = byLabel(projects);
+            for (List<Job<?, ?>> group : groups.values()) {
+                Collections.sort(group, longestFirst);
+            }
+            ordered = interleave(groups.values(), projects.size());
+        } else {
+            // stable, so jobs of equal duration keep their selected order
+            ordered = new ArrayList<Job<?, ?>>(projects);
+            Collections.sort(ordered, longestFirst);
+        }
+
+        return new DurationOrdering(ordered, simulate(projects, durations), simulate(ordered, durations));
+    }
+
+    /**
+     * Group jobs by assigned label, keeping their order within each group
+     */
+    static Map<Label, List<Job<?, ?>>> byLabel(List<Job<?, ?>> projects) {
+        Map<Label, List<Job<?, ?>>> groups = new LinkedHashMap<Label, List<Job<?, ?>>>();
+        for (Job<?, ?> project : projects) {
+            Label label = JobKind.getAssignedLabel(project);
+            List<Job<?, ?>> group = groups.get(label);
+            if (group == null) {
+                group = new ArrayList<Job<?, ?>>();
+                groups.put(label, group);
+            }
+            group.add(project);
+        }
+        return groups;
+    }
+
+    /**
+     * Take one job from each group in turn
+     */
+    private static List<Job<?, ?>> interleave(Iterable<List<Job<?, ?>>> groups, int size) {
+        List<Job<?, ?>> result = new ArrayList<Job<?, ?>>(size);
+        List<Iterator<Job<?, ?>>> iterators = new ArrayList<Iterator<Job<?, ?>>>();
+        for (List<Job<?, ?>> group : groups) {
+            iterators.add(group.iterator());
+        }
+
+        while (!iterators.isEmpty()) {
+            for (Iterator<Iterator<Job<?, ?>>> it = iterators.iterator(); it.hasNext();) {
+                Iterator<Job<?, ?>> group = it.next();
+                if (group.hasNext()) {
+                    result.add(group.next());
+                } else {
+                    it.remove();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Estimated makespan of jobs started in the given order on the
+     * executors of their labels
+     */
+    private static long simulate(List<Job<?, ?>> order, Map<Job<?, ?>, Long> durations) {
+        long makespan = 0;
+        for (Map.Entry<Label, List<Job<?, ?>>> group : byLabel(order).entrySet()) {
+            long[] jobs = new long[group.getValue().size()];
+            for (int i = 0; i < jobs.length; i++) {
+                jobs[i] = durations.get(group.getValue().get(i));
+            }
+            makespan = Math.max(makespan, makespan(jobs, LabelSpreading.totalExecutors(group.getKey())));
+        }
+        return makespan;
+    }
+
+    /**
+     * Makespan of jobs started in order, each on the first executor free
+     *
+     * @param durations job durations, in start order
+     * @param executors number of executors, at least one is assumed
+     * @return
+     */
+    static long makespan(long[] durations, int executors) {
+        int slots = Math.max(1, Math.min(executors, durations.length));
+        if (durations.length == 0) {
+            return 0;
+        }
+
+        PriorityQueue<Long> free = new PriorityQueue<Long>(slots);
+        for (int i = 0; i < slots; i++) {
+            free.add(0L);
+        }
+
+        long makespan = 0;
+        for (long duration : durations) {
+            long finish = free.poll() + duration;
+            makespan = Math.max(makespan, finish);
+            free.add(finish);
+        }
+        return makespan;
+    }
+
+}
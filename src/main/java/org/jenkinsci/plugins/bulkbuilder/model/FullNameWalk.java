@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import com.google.common.collect.AbstractIterator;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Walks the jobs under a set of items in full name order, lazily.
+ *
+ * Rather than collecting and sorting every job, each group's children are
+ * put in a heap as the walk descends into it and taken off one at a time,
+ * so stopping after a page of jobs costs about the size of the groups on the
+ * way plus a logarithmic step per job. A group sorts as its name followed by
+ * {@code /}, which puts its jobs exactly where their full names belong among
+ * its siblings. Groups and jobs not after the starting name are never
+ * looked at again.
+ *
+ * The walk never goes backwards, so a job listed both on its own and inside
+ * a group, as a recursive view may, comes out once.
+ *
+ * @author simon
+ */
+final class FullNameWalk implements Iterable<Job<?, ?>> {
+
+    private final Collection<? extends Item> roots;
+
+    private final String after;
+
+    /**
+     * Walk the jobs among and under some items
+     *
+     * @param roots
+     * @param after full name to start after, or null to start at the beginning
+     */
+    FullNameWalk(Collection<? extends Item> roots, String after) {
+        this.roots = roots;
+        this.after = after;
+    }
+
+    /**
+     * A job, or the jobs of a group, in its place among its siblings
+     */
+    private static final class Node implements Comparable<Node> {
+
+        final String key;
+
+        final Item item;
+
+        final boolean descend;
+
+        Node(String key, Item item, boolean descend) {
+            this.key = key;
+            this.item = item;
+            this.descend = descend;
+        }
+
+        public int compareTo(Node other) {
+            return key.compareTo(other.key);
+        }
+    }
+
+    public Iterator<Job<?, ?>> iterator() {
+        return new AbstractIterator<Job<?, ?>>() {
+
+            private final Deque<PriorityQueue<Node>> stack = new ArrayDeque<PriorityQueue<Node>>();
+
+            /**
+             * Full name of the last job returned, or where the walk started
+             */
+            private String bound = after;
+
+            {
+                stack.push(heap(roots));
+            }
+
+            @Override
+            protected Job<?, ?> computeNext() {
+                while (!stack.isEmpty()) {
+                    Node next = stack.peek().poll();
+                    if (next == null) {
+                        stack.pop();
+                    } else if (!isAhead(next)) {
+                        continue;
+                    } else if (next.descend) {
+                        stack.push(heap(((ItemGroup<?>) next.item).getItems()));
+                    } else {
+                        bound = next.key;
+                        return (Job<?, ?>) next.item;
+                    }
+                }
+                return endOfData();
+            }
+
+            /**
+             * Heap of the children still ahead of the walk, built in linear
+             * time
+             */
+            private PriorityQueue<Node> heap(Collection<? extends Item> items) {
+                List<Node> nodes = new ArrayList<Node>();
+                for (Item item : items) {
+                    String name = item.getFullName();
+                    if (item instanceof Job && item.hasPermission(Item.READ)) {
+                        add(nodes, new Node(name, item, false));
+                    }
+                    if (item instanceof ItemGroup) {
+                        add(nodes, new Node(name + '/', item, true));
+                    }
+                }
+                return new PriorityQueue<Node>(nodes);
+            }
+
+            private void add(List<Node> nodes, Node node) {
+                if (isAhead(node)) {
+                    nodes.add(node);
+                }
+            }
+
+            /**
+             * Is the job after the bound, or may the group hold jobs after it?
+             */
+            private boolean isAhead(Node node) {
+                if (bound == null || node.key.compareTo(bound) > 0) {
+                    return true;
+                }
+                return node.descend && bound.startsWith(node.key);
+            }
+        };
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.QueueListener;
+import hudson.slaves.ComputerListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Holds builds from bulk operations outside the Jenkins build queue and
+ * releases them only as executors become free.
+ *
+ * Every waiting item slows down queue maintenance, so rather than putting
+ * thousands of builds in the queue at once, held builds are released while
+ * the number of bulk builds waiting in the queue is below the number of idle
+ * executors plus {@link #HEADROOM}. The headroom keeps some work queued so
+ * clouds still see demand and provision agents. Builds of jobs tied to a
+ * label are further limited by the idle executors and queued bulk builds of
+ * that label, so a busy label does not consume the capacity of others.
+ *
+ * Releases are triggered by queue, computer and build events rather than by
+ * polling, and run one at a time.
+ *
+ * @author simon
+ */
+@Extension
+public class HoldingQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(HoldingQueue.class.getName());
+
+    /**
+     * Number of bulk builds allowed to wait in the queue beyond the idle executors
+     */
+    static final int HEADROOM = SystemProperties.getInteger(HoldingQueue.class.getName() + ".headroom", 10);
+
+    private static final class Held {
+        final ScheduleRequest request;
+        final BulkOperation operation;
+
+        Held(ScheduleRequest request, BulkOperation operation) {
+            this.request = request;
+            this.operation = operation;
+        }
+    }
+
+    private final LinkedList<Held> held = new LinkedList<Held>();
+
+    /**
+     * Bulk builds currently waiting in the Jenkins queue
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * Bulk builds of labelled jobs waiting in the queue, by label name
+     */
+    private final ConcurrentMap<String, AtomicInteger> queuedByLabel = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * Is a release task submitted or running?
+     */
+    private final AtomicBoolean releasePending = new AtomicBoolean();
+
+    /**
+     * Has an event asked for a release since the running task last looked?
+     */
+    private final AtomicBoolean releaseRequested = new AtomicBoolean();
+
+    public static HoldingQueue get() {
+        return Hudson.getInstance().getExtensionList(HoldingQueue.class).get(0);
+    }
+
+    /**
+     * Hold builds until there is capacity for them
+     *
+     * @param requests
+     * @param operation
+     */
+    public void offer(List<ScheduleRequest> requests, BulkOperation operation) {
+        synchronized (held) {
+            if (operation.isCancelled()) {
+                operation.cancelled(requests.size());
+                return;
+            }
+            for (ScheduleRequest request : requests) {
+                held.add(new Held(request, operation));
+            }
+        }
+        operation.held(requests.size());
+        scheduleRelease();
+    }
+
+    /**
+     * Drop the builds held back for an operation
+     *
+     * @param operation
+     * @return number of builds dropped
+     */
+    public int purge(BulkOperation operation) {
+        int dropped = 0;
+        synchronized (held) {
+            for (Iterator<Held> it = held.iterator(); it.hasNext();) {
+                if (it.next().operation == operation) {
+                    it.remove();
+                    dropped++;
+                }
+            }
+        }
+        if (dropped > 0) {
+            operation.released(dropped);
+        }
+        return dropped;
+    }
+
+    /**
+     * Number of builds held back
+     *
+     * @return
+     */
+    public int size() {
+        synchronized (held) {
+            return held.size();
+        }
+    }
+
+    /**
+     * Number of bulk builds waiting in the Jenkins queue
+     *
+     * @return
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Release builds on a background thread, coalescing bursts of events.
+     *
+     * Only one release runs at a time, and it only stands down after its
+     * builds have entered the queue, so a second release never computes its
+     * capacity from a queue count that does not include them yet.
+     */
+    final void scheduleRelease() {
+        releaseRequested.set(true);
+        if (releasePending.compareAndSet(false, true)) {
+            Timer.get().submit(new Runnable() {
+                public void run() {
+                    try {
+                        while (releaseRequested.getAndSet(false)) {
+                            release();
+                        }
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Failed to release held bulk builds", e);
+                    } finally {
+                        releasePending.set(false);
+                    }
+                    // an event may have arrived after the loop last looked
+                    if (releaseRequested.get()) {
+                        scheduleRelease();
+                    }
+                }
+            });
+        }
+    }
+
+    private void release() {
+        Map<BulkOperation, List<ScheduleRequest>> batches = new LinkedHashMap<BulkOperation, List<ScheduleRequest>>();
+
+        synchronized (held) {
+            if (held.isEmpty()) {
+                return;
+            }
+
+            int capacity = LabelSpreading.idleExecutors(null) + HEADROOM - queued.get();
+            Map<String, Integer> labelCapacity = new HashMap<String, Integer>();
+            for (Iterator<Held> it = held.iterator(); capacity > 0 && it.hasNext();) {
+                Held next = it.next();
+                Label label = next.request.getTask().getAssignedLabel();
+                if (label != null) {
+                    Integer left = labelCapacity.get(label.getName());
+                    if (left == null) {
+                        left = label.getIdleExecutors() + HEADROOM - getQueued(label);
+                    }
+                    if (left <= 0) {
+                        // keep its place until the label frees up
+                        labelCapacity.put(label.getName(), 0);
+                        continue;
+                    }
+                    labelCapacity.put(label.getName(), left - 1);
+                }
+                it.remove();
+                capacity--;
+
+                List<ScheduleRequest> batch = batches.get(next.operation);
+                if (batch == null) {
+                    batch = new ArrayList<ScheduleRequest>();
+                    batches.put(next.operation, batch);
+                }
+                batch.add(next.request);
+            }
+        }
+
+        for (Map.Entry<BulkOperation, List<ScheduleRequest>> batch : batches.entrySet()) {
+            LOGGER.log(Level.FINE, "Releasing {0} held builds of bulk operation {1}",
+                    new Object[] {batch.getValue().size(), batch.getKey()});
+            BatchScheduler.insert(batch.getValue(), batch.getKey(), true);
+            batch.getKey().released(batch.getValue().size());
+        }
+    }
+
+    /**
+     * Number of bulk builds tied to a label waiting in the Jenkins queue
+     *
+     * @param label
+     * @return
+     */
+    public int getQueued(Label label) {
+        AtomicInteger count = queuedByLabel.get(label.getName());
+        return count == null ? 0 : count.get();
+    }
+
+    private void enteredQueue(Label label) {
+        queued.incrementAndGet();
+        if (label == null) {
+            return;
+        }
+        AtomicInteger count = queuedByLabel.get(label.getName());
+        if (count == null) {
+            AtomicInteger existing = queuedByLabel.putIfAbsent(label.getName(), count = new AtomicInteger());
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private void leftQueue(Label label) {
+        if (queued.decrementAndGet() < 0) {
+            queued.set(0);
+        }
+        if (label == null) {
+            return;
+        }
+        AtomicInteger count = queuedByLabel.get(label.getName());
+        if (count != null && count.decrementAndGet() < 0) {
+            count.set(0);
+        }
+    }
+
+    @Extension
+    public static class QueueListenerImpl extends QueueListener {
+
+        @Override
+        public void onEnterWaiting(Queue.WaitingItem wi) {
+            if (BulkOperationAction.of(wi) != null) {
+                get().enteredQueue(wi.task.getAssignedLabel());
+            }
+        }
+
+        @Override
+        public void onLeft(Queue.LeftItem li) {
+            if (BulkOperationAction.of(li) != null) {
+                HoldingQueue queue = get();
+                queue.leftQueue(li.task.getAssignedLabel());
+                queue.scheduleRelease();
+            }
+        }
+    }
+
+    @Extension
+    public static class ComputerListenerImpl extends ComputerListener {
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            get().scheduleRelease();
+        }
+
+        @Override
+        public void onTemporarilyOnline(Computer c) {
+            get().scheduleRelease();
+        }
+    }
+
+    /**
+     * A finished build frees its executor without any queue event
+     */
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, TaskListener listener) {
+            HoldingQueue queue = get();
+            if (queue.size() > 0) {
+                queue.scheduleRelease();
+            }
+        }
+    }
+}
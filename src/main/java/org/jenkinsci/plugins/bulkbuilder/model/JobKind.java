@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.AbstractProject;
+import hudson.model.Job;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.SCMedItem;
+import jenkins.model.ParameterizedJobMixIn;
+import jenkins.triggers.SCMTriggerItem;
+import jenkins.triggers.SCMTriggerItems;
+
+/**
+ * What the bulk builder can do with a type of job.
+ *
+ * Freestyle, matrix and Pipeline jobs all implement
+ * {@link ParameterizedJobMixIn.ParameterizedJob}, and through it
+ * {@link Queue.Task}, so any such job can be selected and scheduled. The
+ * checks are made once per job class and cached, rather than repeated for
+ * every job a selection visits.
+ *
+ * @author simon
+ */
+final class JobKind {
+
+    private static final ClassValue<JobKind> KINDS = new ClassValue<JobKind>() {
+        @Override
+        protected JobKind computeValue(Class<?> type) {
+            return new JobKind(type);
+        }
+    };
+
+    private final boolean schedulable;
+
+    private final boolean pollable;
+
+    private final boolean inDependencyGraph;
+
+    @SuppressWarnings("deprecation")
+    private JobKind(Class<?> type) {
+        this.schedulable = ParameterizedJobMixIn.ParameterizedJob.class.isAssignableFrom(type);
+        this.pollable = SCMTriggerItem.class.isAssignableFrom(type) || SCMedItem.class.isAssignableFrom(type);
+        this.inDependencyGraph = AbstractProject.class.isAssignableFrom(type);
+    }
+
+    /**
+     * Kind of a job, looked up by its class
+     *
+     * @param job
+     * @return
+     */
+    static JobKind of(Job<?, ?> job) {
+        return KINDS.get(job.getClass());
+    }
+
+    /**
+     * Can jobs of this kind be put in the build queue?
+     *
+     * @return
+     */
+    boolean isSchedulable() {
+        return schedulable;
+    }
+
+    /**
+     * Can jobs of this kind poll their SCMs?
+     *
+     * @return
+     */
+    boolean isPollable() {
+        return pollable;
+    }
+
+    /**
+     * Do jobs of this kind appear in the {@link hudson.model.DependencyGraph}?
+     *
+     * @return
+     */
+    boolean isInDependencyGraph() {
+        return inDependencyGraph;
+    }
+
+    /**
+     * A schedulable job as a queue task
+     *
+     * @param job
+     * @return
+     */
+    static Queue.Task asTask(Job<?, ?> job) {
+        return (Queue.Task) job;
+    }
+
+    /**
+     * Label a schedulable job is tied to
+     *
+     * @param job
+     * @return the label, or null if the job may run anywhere
+     */
+    static Label getAssignedLabel(Job<?, ?> job) {
+        return asTask(job).getAssignedLabel();
+    }
+
+    /**
+     * Quiet period of a schedulable job
+     *
+     * @param job
+     * @return
+     */
+    static int getQuietPeriod(Job<?, ?> job) {
+        return ((ParameterizedJobMixIn.ParameterizedJob<?, ?>) job).getQuietPeriod();
+    }
+
+    /**
+     * A job's SCM polling view
+     *
+     * @param job
+     * @return the job as a trigger item, or null if it does not poll
+     */
+    static SCMTriggerItem asPollable(Job<?, ?> job) {
+        return of(job).isPollable() ? SCMTriggerItems.asSCMTriggerItem(job) : null;
+    }
+
+    /**
+     * A job as a node of the dependency graph
+     *
+     * @param job
+     * @return the project, or null if the job is not in the graph
+     */
+    static AbstractProject<?, ?> asProject(Job<?, ?> job) {
+        return of(job).isInDependencyGraph() ? (AbstractProject<?, ?>) job : null;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.Job;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches job names against a comma separated list of glob patterns.
+ *
+ * Patterns are compiled once, so a single matcher should be used for every
+ * job in a bulk operation. A glob may use {@code *} to match any sequence of
+ * characters and {@code ?} to match a single character; prefixing it with
+ * {@code !} excludes matching jobs instead. A job matches if its full name or
+ * display name matches at least one include (or there are no includes) and
+ * neither matches an exclude.
+ *
+ * Globs which are plain literals, prefixes, suffixes or substrings are
+ * matched with simple string comparisons rather than regular expressions.
+ *
+ * @author simon
+ */
+public final class JobNameMatcher {
+
+    private final String patterns;
+
+    private final Glob[] includes;
+
+    private final Glob[] excludes;
+
+    private JobNameMatcher(String patterns, List<Glob> includes, List<Glob> excludes) {
+        this.patterns = patterns;
+        this.includes = includes.toArray(new Glob[includes.size()]);
+        this.excludes = excludes.toArray(new Glob[excludes.size()]);
+    }
+
+    /**
+     * Compile a comma separated list of globs
+     *
+     * @param patterns
+     * @return
+     */
+    public static JobNameMatcher compile(String patterns) {
+        List<Glob> includes = new ArrayList<Glob>();
+        List<Glob> excludes = new ArrayList<Glob>();
+
+        for (String token : patterns.split(",")) {
+            String glob = token.trim();
+            boolean exclude = glob.startsWith("!");
+            if (exclude) {
+                glob = glob.substring(1).trim();
+            }
+            if (glob.isEmpty()) {
+                continue;
+            }
+            (exclude ? excludes : includes).add(Glob.compile(glob));
+        }
+
+        return new JobNameMatcher(patterns, includes, excludes);
+    }
+
+    /**
+     * Does the job's full name or display name match?
+     *
+     * @param job
+     * @return
+     */
+    public boolean matches(Job<?, ?> job) {
+        return matches(job.getFullName(), job.getDisplayName());
+    }
+
+    /**
+     * Does either name match?
+     *
+     * @param fullName
+     * @param displayName
+     * @return
+     */
+    public boolean matches(String fullName, String displayName) {
+        if (includes.length > 0 && !matchesAny(includes, fullName, displayName)) {
+            return false;
+        }
+        return !matchesAny(excludes, fullName, displayName);
+    }
+
+    private static boolean matchesAny(Glob[] globs, String fullName, String displayName) {
+        for (Glob glob : globs) {
+            if (glob.matches(fullName) || (displayName != null && glob.matches(displayName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return patterns;
+    }
+
+    /**
+     * A single compiled glob
+     */
+    abstract static class Glob {
+
+        abstract boolean matches(String name);
+
+        static Glob compile(String glob) {
+            if (glob.indexOf('?') < 0) {
+                int first = glob.indexOf('*');
+                if (first < 0) {
+                    return new Literal(glob);
+                }
+
+                int last = glob.lastIndexOf('*');
+                String inner = glob.substring(first + 1, last);
+
+                if (first == last && last == glob.length() - 1) {
+                    return new Prefix(glob.substring(0, first));
+                }
+                if (first == last && first == 0) {
+                    return new Suffix(glob.substring(1));
+                }
+                if (first == 0 && last == glob.length() - 1 && inner.indexOf('*') < 0) {
+                    return new Contains(inner);
+                }
+            }
+            return new Regex(glob);
+        }
+    }
+
+    static final class Literal extends Glob {
+        private final String literal;
+
+        Literal(String literal) {
+            this.literal = literal;
+        }
+
+        @Override
+        boolean matches(String name) {
+            return literal.equals(name);
+        }
+    }
+
+    static final class Prefix extends Glob {
+        private final String prefix;
+
+        Prefix(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        boolean matches(String name) {
+            return name.startsWith(prefix);
+        }
+    }
+
+    static final class Suffix extends Glob {
+        private final String suffix;
+
+        Suffix(String suffix) {
+            this.suffix = suffix;
+        }
+
+        @Override
+        boolean matches(String name) {
+            return name.endsWith(suffix);
+        }
+    }
+
+    static final class Contains extends Glob {
+        private final String infix;
+
+        Contains(String infix) {
+            this.infix = infix;
+        }
+
+        @Override
+        boolean matches(String name) {
+            return name.contains(infix);
+        }
+    }
+
+    static final class Regex extends Glob {
+        private final Pattern pattern;
+
+        Regex(String glob) {
+            StringBuilder regex = new StringBuilder(glob.length() + 16);
+            StringBuilder literal = new StringBuilder();
+
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (literal.length() > 0) {
+                        regex.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    regex.append(c == '*' ? ".*" : ".");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+
+            this.pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+
+        @Override
+        boolean matches(String name) {
+            return pattern.matcher(name).matches();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Job;
+import hudson.model.Label;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spreads selected jobs across the agent pools of their labels.
+ *
+ * Jobs are grouped by assigned label. The first jobs of each label, up to
+ * its number of free executors, go first so every pool with capacity gets
+ * work straight away. The rest are interleaved in proportion to each
+ * label's total executors, so a scarce label's backlog does not hold up
+ * jobs for other pools. Jobs of one label keep the order they were found in.
+ *
+ * @author simon
+ */
+final class LabelSpreading {
+
+    /**
+     * Name used in reports for jobs without an assigned label
+     */
+    static final String ANY_LABEL = "any";
+
+    private LabelSpreading() {
+    }
+
+    /**
+     * Put jobs in spread order
+     *
+     * @param projects jobs in the order they were selected
+     * @return
+     */
+    static List<Job<?, ?>> spread(List<Job<?, ?>> projects) {
+        Map<Label, List<Job<?, ?>>> groups = DurationOrdering.byLabel(projects);
+        Map<Label, Integer> free = new LinkedHashMap<Label, Integer>();
+        Map<Label, Integer> weights = new LinkedHashMap<Label, Integer>();
+        for (Label label : groups.keySet()) {
+            free.put(label, idleExecutors(label));
+            weights.put(label, Math.max(1, totalExecutors(label)));
+        }
+        return spread(groups, free, weights, projects.size());
+    }
+
+    /**
+     * Put grouped jobs in spread order
+     *
+     * @param groups jobs by label
+     * @param free free executors by label
+     * @param weights share of each round by label, at least one
+     * @param size total number of jobs
+     * @return
+     */
+    static <L, T> List<T> spread(Map<L, List<T>> groups, Map<L, Integer> free, Map<L, Integer> weights, int size) {
+        List<T> result = new ArrayList<T>(size);
+        Map<L, Iterator<T>> iterators = new LinkedHashMap<L, Iterator<T>>();
+        for (Map.Entry<L, List<T>> group : groups.entrySet()) {
+            iterators.put(group.getKey(), group.getValue().iterator());
+        }
+
+        // fill the free executors of every label first
+        for (Map.Entry<L, Iterator<T>> group : iterators.entrySet()) {
+            Integer n = free.get(group.getKey());
+            for (int i = 0; n != null && i < n && group.getValue().hasNext(); i++) {
+                result.add(group.getValue().next());
+            }
+        }
+
+        // then take turns, in proportion to each label's executors
+        while (result.size() < size) {
+            for (Map.Entry<L, Iterator<T>> group : iterators.entrySet()) {
+                Integer n = weights.get(group.getKey());
+                for (int i = 0; i < (n == null ? 1 : n) && group.getValue().hasNext(); i++) {
+                    result.add(group.getValue().next());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Report name of a label
+     *
+     * @param label
+     * @return
+     */
+    static String nameOf(Label label) {
+        return label == null ? ANY_LABEL : label.getName();
+    }
+
+    static int idleExecutors(Label label) {
+        if (label != null) {
+            return label.getIdleExecutors();
+        }
+
+        int idle = 0;
+        for (Computer computer : Hudson.getInstance().getComputers()) {
+            if (computer.isOnline() && computer.isAcceptingTasks()) {
+                idle += computer.countIdle();
+            }
+        }
+        return idle;
+    }
+
+    static int totalExecutors(Label label) {
+        if (label != null) {
+            return label.getTotalExecutors();
+        }
+
+        int executors = 0;
+        for (Computer computer : Hudson.getInstance().getComputers()) {
+            if (computer.isOnline()) {
+                executors += computer.countExecutors();
+            }
+        }
+        return executors;
+    }
+}
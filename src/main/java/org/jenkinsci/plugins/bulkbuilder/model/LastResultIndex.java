@@ -0,0 +1,430 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import jenkins.model.Jenkins;
+
+/**
+ * In-memory index of the last completed build result of each job.
+ *
+ * Status filters consult this index instead of calling
+ * {@link Job#getLastCompletedBuild()}, which may have to load build records
+ * from disk. A job's entry is loaded from its build records the first time it
+ * is asked for, and is kept up to date from then on by listening to build
+ * completions and deletions and job renames/deletions. Deleting a build only
+ * costs a reload if it is the build indexed for its job, which log rotation
+ * rarely deletes.
+ *
+ * Entries are also kept sorted by start time and by duration, so time range
+ * queries cost O(log n + k) rather than a look at every job. The first range
+ * query loads an entry for every job; after that only jobs created or
+ * renamed, and jobs whose indexed build was deleted, need loading again.
+ *
+ * @author simon
+ */
+@Extension
+public class LastResultIndex {
+
+    /**
+     * Result, start time and duration of a completed build
+     */
+    public static final class Entry {
+
+        private final Result result;
+
+        private final long timestamp;
+
+        private final long duration;
+
+        Entry(Result result, long timestamp, long duration) {
+            this.result = result;
+            this.timestamp = timestamp;
+            this.duration = duration;
+        }
+
+        public Result getResult() {
+            return result;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+    }
+
+    /**
+     * Placeholder for jobs without a completed build, which sorts before any
+     * build by both start time and duration
+     */
+    private static final Entry NONE = new Entry(null, Long.MIN_VALUE, -1);
+
+    /**
+     * Position of a job in one of the sorted views
+     */
+    private static final class Key {
+
+        final long value;
+
+        final String name;
+
+        Key(long value, String name) {
+            this.value = value;
+            this.name = name;
+        }
+    }
+
+    /**
+     * By value, then name. The empty name sorts before every job, so
+     * {@code new Key(v, "")} bounds all keys of value {@code v} from below.
+     */
+    private static final Comparator<Key> BY_VALUE = new Comparator<Key>() {
+        public int compare(Key a, Key b) {
+            int c = Long.compare(a.value, b.value);
+            return c != 0 ? c : a.name.compareTo(b.name);
+        }
+    };
+
+    /**
+     * Entries keyed by job full name
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private final ConcurrentSkipListSet<Key> byTimestamp = new ConcurrentSkipListSet<Key>(BY_VALUE);
+
+    private final ConcurrentSkipListSet<Key> byDuration = new ConcurrentSkipListSet<Key>(BY_VALUE);
+
+    /**
+     * Does every job have an entry?
+     */
+    private volatile boolean complete;
+
+    /**
+     * Bumped whenever a job may have lost its entry, so a walk of all jobs
+     * racing with it does not claim to be complete
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private final Object completing = new Object();
+
+    /**
+     * Jobs whose indexed build was deleted, to be reloaded before the next
+     * range query
+     */
+    private final Set<String> stale = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Walks of all jobs and entries loaded from build records so far
+     */
+    private final AtomicInteger walks = new AtomicInteger();
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    public static LastResultIndex get() {
+        return Hudson.getInstance().getExtensionList(LastResultIndex.class).get(0);
+    }
+
+    /**
+     * Get the last completed build of a job
+     *
+     * @param job
+     * @return the entry, or null if the job has no completed build
+     */
+    public Entry getEntry(Job<?, ?> job) {
+        String name = job.getFullName();
+        Entry entry = entries.get(name);
+
+        if (entry == null) {
+            loads.incrementAndGet();
+            entry = put(name, load(job));
+        }
+
+        return entry == NONE ? null : entry;
+    }
+
+    /**
+     * Get the duration of the last completed build of a job, without loading
+     * anything from disk
+     *
+     * @param job
+     * @return milliseconds, 0 if the job has no completed build, or -1 if the
+     * job is not indexed yet
+     */
+    public long getIndexedDuration(Job<?, ?> job) {
+        Entry entry = entries.get(job.getFullName());
+
+        if (entry == null) {
+            return -1;
+        }
+
+        return entry == NONE ? 0 : entry.duration;
+    }
+
+    /**
+     * Get the result of the last completed build of a job
+     *
+     * @param job
+     * @return the result, or null if the job has no completed build
+     */
+    public Result getLastResult(Job<?, ?> job) {
+        Entry entry = getEntry(job);
+        return entry == null ? null : entry.getResult();
+    }
+
+    /**
+     * Jobs whose last completed build started in a range of time
+     *
+     * @param from earliest start, inclusive; {@link Long#MIN_VALUE} includes
+     * jobs never built
+     * @param to latest start, exclusive
+     * @return full names of the jobs
+     */
+    public Set<String> getStartedBetween(long from, long to) {
+        ensureComplete();
+        return names(byTimestamp, from, to);
+    }
+
+    /**
+     * Jobs whose last completed build took a range of time. Jobs never built
+     * are never included.
+     *
+     * @param min shortest duration in milliseconds, inclusive
+     * @param max longest duration in milliseconds, exclusive
+     * @return full names of the jobs
+     */
+    public Set<String> getDurationBetween(long min, long max) {
+        ensureComplete();
+        return names(byDuration, Math.max(0, min), max);
+    }
+
+    /**
+     * Number of jobs currently indexed
+     *
+     * @return
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    final int getWalks() {
+        return walks.get();
+    }
+
+    final int getLoads() {
+        return loads.get();
+    }
+
+    private static Set<String> names(NavigableSet<Key> sorted, long from, long to) {
+        Set<String> names = new HashSet<String>();
+        if (from >= to) {
+            return names;
+        }
+        for (Key key : sorted.subSet(new Key(from, ""), true, new Key(to, ""), false)) {
+            names.add(key.name);
+        }
+        return names;
+    }
+
+    /**
+     * Load an entry for every job not yet indexed, as the system so that no
+     * job is missed whoever asks first. Once every job has been walked, only
+     * the jobs gone stale since are reloaded.
+     */
+    private void ensureComplete() {
+        if (complete && stale.isEmpty()) {
+            return;
+        }
+        synchronized (completing) {
+            try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+                if (!complete) {
+                    int started = generation.get();
+                    walks.incrementAndGet();
+                    for (Job<?, ?> job : Hudson.getInstance().allItems(Job.class)) {
+                        getEntry(job);
+                    }
+                    complete = generation.get() == started;
+                }
+                for (Iterator<String> it = stale.iterator(); it.hasNext();) {
+                    String name = it.next();
+                    it.remove();
+                    Job<?, ?> job = Jenkins.get().getItemByFullName(name, Job.class);
+                    if (job != null) {
+                        getEntry(job);
+                    }
+                }
+            }
+        }
+    }
+
+    private void incomplete() {
+        generation.incrementAndGet();
+        complete = false;
+    }
+
+    private static Entry load(Job<?, ?> job) {
+        Run<?, ?> build = job.getLastCompletedBuild();
+        if (build == null || build.getResult() == null) {
+            return NONE;
+        }
+        return new Entry(build.getResult(), build.getTimeInMillis(), build.getDuration());
+    }
+
+    final void record(Run<?, ?> run) {
+        Result result = run.getResult();
+        if (result != null) {
+            put(run.getParent().getFullName(), new Entry(result, run.getTimeInMillis(), run.getDuration()));
+        }
+    }
+
+    /**
+     * Keep whichever entry belongs to the most recent build, updating the
+     * sorted views to match
+     *
+     * @return the entry kept
+     */
+    private synchronized Entry put(String name, Entry update) {
+        Entry current = entries.get(name);
+        if (current != null && update.timestamp < current.timestamp) {
+            return current;
+        }
+
+        if (current != null) {
+            unsort(name, current);
+        }
+        entries.put(name, update);
+        byTimestamp.add(new Key(update.timestamp, name));
+        byDuration.add(new Key(update.duration, name));
+        return update;
+    }
+
+    private void unsort(String name, Entry entry) {
+        byTimestamp.remove(new Key(entry.timestamp, name));
+        byDuration.remove(new Key(entry.duration, name));
+    }
+
+    /**
+     * Forget a job's entry if it is for the deleted build, so it is reloaded
+     * on next use. Deleting any other build leaves the entry as it is.
+     *
+     * @param run
+     */
+    final synchronized void deleted(Run<?, ?> run) {
+        String name = run.getParent().getFullName();
+        Entry current = entries.get(name);
+        if (current == null || current.timestamp != run.getTimeInMillis()) {
+            return;
+        }
+
+        entries.remove(name);
+        unsort(name, current);
+        stale.add(name);
+    }
+
+    /**
+     * Forget a job, and any jobs inside it, so they are reloaded on next use
+     *
+     * @param fullName
+     */
+    final synchronized void invalidate(String fullName) {
+        incomplete();
+
+        Entry removed = entries.remove(fullName);
+        if (removed != null) {
+            unsort(fullName, removed);
+        }
+
+        String prefix = fullName + '/';
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                unsort(entry.getKey(), entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, TaskListener listener) {
+            get().record(run);
+        }
+
+        @Override
+        public void onDeleted(Run<?, ?> run) {
+            get().deleted(run);
+        }
+    }
+
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onCreated(Item item) {
+            get().incomplete();
+        }
+
+        @Override
+        public void onCopied(Item src, Item item) {
+            get().incomplete();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            get().invalidate(item.getFullName());
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            get().invalidate(oldFullName);
+        }
+    }
+}
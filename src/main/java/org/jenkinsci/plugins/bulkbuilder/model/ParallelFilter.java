@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import com.google.common.base.Predicate;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Evaluates a predicate over a stream of candidates on a fork-join pool.
+ *
+ * Candidates are pulled from the source on the calling thread, so any
+ * permission checks made while enumerating still apply, and handed to the
+ * pool in fixed size chunks. Only a bounded number of chunks is in flight at
+ * once, so memory use depends on the number of matches rather than the
+ * number of candidates. Matches are returned in encounter order.
+ *
+ * Chunks are evaluated as the calling user, so permission sensitive
+ * predicates see the same authentication as when filtering serially. Once
+ * the operation is cancelled no further chunks are submitted or evaluated.
+ *
+ * @author simon
+ */
+final class ParallelFilter {
+
+    static final int CHUNK_SIZE = SystemProperties.getInteger(ParallelFilter.class.getName() + ".chunkSize", 256);
+
+    static final int PARALLELISM = SystemProperties.getInteger(ParallelFilter.class.getName() + ".parallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    private ParallelFilter() {
+    }
+
+    private static final class PoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM);
+    }
+
+    static <T> List<T> filter(Iterable<T> candidates, final Predicate<? super T> predicate,
+            final BulkOperation operation) {
+        ForkJoinPool pool = PoolHolder.POOL;
+        final Authentication auth = Jenkins.getAuthentication2();
+        int maxInFlight = pool.getParallelism() * 2;
+
+        List<T> matches = new ArrayList<T>();
+        Deque<ForkJoinTask<List<T>>> inFlight = new ArrayDeque<ForkJoinTask<List<T>>>();
+        Iterator<T> it = candidates.iterator();
+
+        while (!operation.isCancelled() && it.hasNext()) {
+            final List<T> chunk = new ArrayList<T>(CHUNK_SIZE);
+            while (it.hasNext() && chunk.size() < CHUNK_SIZE) {
+                chunk.add(it.next());
+            }
+
+            inFlight.add(pool.submit(new Callable<List<T>>() {
+                public List<T> call() {
+                    List<T> chunkMatches = new ArrayList<T>();
+                    if (operation.isCancelled()) {
+                        return chunkMatches;
+                    }
+                    try (ACLContext ctx = ACL.as2(auth)) {
+                        for (T candidate : chunk) {
+                            if (predicate.apply(candidate)) {
+                                chunkMatches.add(candidate);
+                            }
+                        }
+                    }
+                    return chunkMatches;
+                }
+            }));
+
+            if (inFlight.size() >= maxInFlight) {
+                matches.addAll(inFlight.poll().join());
+            }
+        }
+
+        while (!inFlight.isEmpty()) {
+            matches.addAll(inFlight.poll().join());
+        }
+
+        return matches;
+    }
+}
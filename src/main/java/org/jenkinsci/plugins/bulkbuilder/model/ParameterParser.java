@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Single pass parser for bulk build parameter strings of the form
+ * <code>KEY=value&amp;KEY2=value2</code>.
+ *
+ * The first <code>=</code> of a segment separates the key from the value, so
+ * values may themselves contain <code>=</code>. Keys and values may be
+ * percent-encoded (UTF-8) to include <code>&amp;</code> or other reserved
+ * characters. A key given more than once keeps every value, in order. Empty
+ * segments are ignored; segments without a key or <code>=</code>, or with a
+ * bad escape, are reported as malformed.
+ *
+ * @author simon
+ */
+public final class ParameterParser {
+
+    private final ImmutableListMultimap<String, String> values;
+
+    private final List<String> malformed;
+
+    private ParameterParser(ImmutableListMultimap<String, String> values, List<String> malformed) {
+        this.values = values;
+        this.malformed = malformed;
+    }
+
+    /**
+     * Parse a raw parameter string
+     *
+     * @param raw the parameter string, may be null
+     * @return
+     */
+    public static ParameterParser parse(String raw) {
+        ImmutableListMultimap.Builder<String, String> values = ImmutableListMultimap.builder();
+        ImmutableList.Builder<String> malformed = ImmutableList.builder();
+
+        if (raw != null) {
+            int length = raw.length();
+            int start = 0;
+
+            while (start <= length) {
+                int end = raw.indexOf('&', start);
+                if (end < 0) {
+                    end = length;
+                }
+
+                if (end > start) {
+                    int eq = raw.indexOf('=', start);
+                    String key = eq > start && eq < end ? decode(raw, start, eq) : null;
+                    String value = key != null ? decode(raw, eq + 1, end) : null;
+
+                    if (key == null || key.isEmpty() || value == null) {
+                        malformed.add(raw.substring(start, end));
+                    } else {
+                        values.put(key, value);
+                    }
+                }
+
+                start = end + 1;
+            }
+        }
+
+        return new ParameterParser(values.build(), malformed.build());
+    }
+
+    /**
+     * Every value of every parameter, in the order given
+     *
+     * @return
+     */
+    public ImmutableListMultimap<String, String> getValues() {
+        return values;
+    }
+
+    /**
+     * Segments that could not be parsed
+     *
+     * @return
+     */
+    public List<String> getMalformed() {
+        return malformed;
+    }
+
+    /**
+     * Percent-decode part of the raw string
+     *
+     * @return the decoded text, or null if it contains a bad escape
+     */
+    private static String decode(String raw, int start, int end) {
+        int percent = raw.indexOf('%', start);
+        if (percent < 0 || percent >= end) {
+            return raw.substring(start, end);
+        }
+
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(raw, start, percent);
+        byte[] bytes = null;
+
+        int i = percent;
+        while (i < end) {
+            char c = raw.charAt(i);
+            if (c != '%') {
+                sb.append(c);
+                i++;
+                continue;
+            }
+
+            // collect a run of escapes so multi-byte characters decode together
+            int count = 0;
+            if (bytes == null) {
+                bytes = new byte[(end - i) / 3];
+            }
+            while (i < end && raw.charAt(i) == '%') {
+                if (i + 2 >= end) {
+                    return null;
+                }
+                int hi = Character.digit(raw.charAt(i + 1), 16);
+                int lo = Character.digit(raw.charAt(i + 2), 16);
+                if (hi < 0 || lo < 0) {
+                    return null;
+                }
+                bytes[count++] = (byte) ((hi << 4) | lo);
+                i += 3;
+            }
+            sb.append(new String(bytes, 0, count, StandardCharsets.UTF_8));
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.ParameterDefinition;
+import hudson.model.ParameterValue;
+import hudson.model.SimpleParameterDefinition;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parameter definitions of a job prepared for resolving a build's values.
+ *
+ * How each definition takes a value is worked out when the plan is
+ * compiled. Compiling is a pass over the definitions, cheap enough to do for
+ * every build, so plans are not kept; default values are likewise asked of
+ * the definition every time, as they may change from one build to the next.
+ *
+ * @author simon
+ */
+final class ParameterPlan {
+
+    private static final Logger LOGGER = Logger.getLogger(ParameterPlan.class.getName());
+
+    /**
+     * How a definition takes the user's value
+     */
+    private enum Kind {
+
+        /**
+         * Created from the user's string, as any
+         * {@link SimpleParameterDefinition} can be
+         */
+        SIMPLE,
+
+        /**
+         * Not creatable from a string, always takes its own default
+         */
+        DEFAULT_ONLY
+    }
+
+    private static final class Step {
+
+        private final String name;
+
+        private final Kind kind;
+
+        private final ParameterDefinition definition;
+
+        Step(ParameterDefinition definition) {
+            this.name = definition.getName();
+            this.kind = definition instanceof SimpleParameterDefinition ? Kind.SIMPLE : Kind.DEFAULT_ONLY;
+            this.definition = definition;
+        }
+
+        ParameterValue resolve(Map<String, String> userParams) {
+            String value = userParams.get(name);
+            if (value == null && !userParams.containsKey(name)) {
+                return definition.getDefaultParameterValue();
+            }
+
+            if (kind == Kind.SIMPLE) {
+                return ((SimpleParameterDefinition) definition).createValue(value);
+            }
+
+            LOGGER.log(Level.FINE, "Parameter ''{0}'' cannot take a value from a string, using its default", name);
+            return definition.getDefaultParameterValue();
+        }
+    }
+
+    private final Step[] steps;
+
+    private ParameterPlan(Step[] steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * Prepare a plan for the given parameter definitions
+     *
+     * @param parameterDefinitions
+     * @return
+     */
+    static ParameterPlan compile(List<ParameterDefinition> parameterDefinitions) {
+        Step[] steps = new Step[parameterDefinitions.size()];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = new Step(parameterDefinitions.get(i));
+        }
+        return new ParameterPlan(steps);
+    }
+
+    /**
+     * Values for a build, taking the user's value where supplied and the
+     * default value otherwise. Parameters without a default value are left
+     * out.
+     *
+     * @param userParams
+     * @return
+     */
+    List<ParameterValue> apply(Map<String, String> userParams) {
+        List<ParameterValue> values = new ArrayList<ParameterValue>(steps.length);
+        boolean fine = LOGGER.isLoggable(Level.FINE);
+
+        for (Step step : steps) {
+            ParameterValue value = step.resolve(userParams);
+            if (fine) {
+                LOGGER.log(Level.FINE, "Parameter Value = {0}", value);
+            }
+            if (value != null) {
+                values.add(value);
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Default values of every parameter, for builds without user values
+     *
+     * @return
+     */
+    List<ParameterValue> defaults() {
+        List<ParameterValue> values = new ArrayList<ParameterValue>(steps.length);
+        for (Step step : steps) {
+            ParameterValue value = step.definition.getDefaultParameterValue();
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.CauseAction;
+import hudson.model.Hudson;
+import hudson.model.Job;
+import hudson.scm.NullSCM;
+import hudson.scm.PollingResult;
+import hudson.scm.SCM;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.triggers.SCMTrigger;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jenkins.scm.SCMDecisionHandler;
+import jenkins.triggers.SCMTriggerItem;
+import jenkins.util.SystemProperties;
+
+/**
+ * Polls the SCMs of jobs selected by {@link BuildAction#POLL_SCM} operations
+ * on a bounded pool of threads, scheduling a build of each job with changes.
+ *
+ * At most {@link #THREADS} polls run at once, and at most
+ * {@link #PER_HOST} against any one SCM host; polls over a host's limit wait
+ * in a queue for that host rather than tying up a thread. The outcome and
+ * duration of every poll is recorded in the operation's
+ * {@link PollingSummary}. Polls still waiting when their operation is
+ * cancelled are not run, and a poll finding changes after it was cancelled
+ * does not schedule a build.
+ *
+ * Polls are run here rather than through {@link SCMTrigger}'s own thread
+ * pool, so that the limits above apply and the outcome is known. As before
+ * this engine existed, only jobs with an {@link SCMTrigger} are polled. The
+ * poll is logged to the trigger's polling log and respects any
+ * {@link SCMDecisionHandler} veto, as the trigger's polls do. A job the
+ * trigger is polling at that moment is not polled again, though the trigger
+ * may still start a scheduled poll while a bulk poll of the same job runs,
+ * as it cannot see polls made outside its own pool.
+ *
+ * @author simon
+ */
+@Extension
+public class PollingEngine {
+
+    private static final Logger LOGGER = Logger.getLogger(PollingEngine.class.getName());
+
+    /**
+     * Number of polls allowed to run at the same time
+     */
+    static final int THREADS = SystemProperties.getInteger(PollingEngine.class.getName() + ".threads", 8);
+
+    /**
+     * Number of polls allowed to run against one SCM host at the same time
+     */
+    static final int PER_HOST = SystemProperties.getInteger(PollingEngine.class.getName() + ".perHost", 4);
+
+    /**
+     * Host reported for jobs without an SCM to poll
+     */
+    static final String NONE = "none";
+
+    /**
+     * Host name after a scheme or user name in an SCM key
+     */
+    private static final Pattern HOST = Pattern.compile("(?:://(?:[^@/]*@)?|@)([\\w.-]+)");
+
+    private static final class Host {
+        int running;
+        final Deque<Runnable> waiting = new ArrayDeque<Runnable>();
+    }
+
+    private final ExecutorService executor;
+
+    /**
+     * Hosts with polls running, guarded by itself
+     */
+    private final Map<String, Host> hosts = new HashMap<String, Host>();
+
+    public PollingEngine() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "BulkBuilder.polling"));
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    public static PollingEngine get() {
+        return Hudson.getInstance().getExtensionList(PollingEngine.class).get(0);
+    }
+
+    /**
+     * Poll a job in the background, crediting the outcome to an operation
+     *
+     * @param job
+     * @param operation
+     */
+    public void poll(final Job<?, ?> job, final BulkOperation operation) {
+        final SCMTriggerItem item = JobKind.asPollable(job);
+        final String host = hostOf(item);
+        operation.pollStarted();
+
+        submit(host, new Runnable() {
+            public void run() {
+                try {
+                    pollNow(job, item, host, operation);
+                } finally {
+                    operation.pollFinished();
+                }
+            }
+        });
+    }
+
+    private void pollNow(Job<?, ?> job, SCMTriggerItem item, String host, BulkOperation operation) {
+        PollingSummary summary = operation.getPolling();
+        SCMTrigger trigger = item == null ? null : item.getSCMTrigger();
+        if (operation.isCancelled() || trigger == null || !job.isBuildable() || NONE.equals(host)
+                || isVetoed(job) || isBeingPolled(trigger)) {
+            summary.record(job.getFullName(), host, PollingSummary.Outcome.NOT_POLLED, 0, null);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2);
+                StreamTaskListener listener = new StreamTaskListener(trigger.getLogFile(), Charset.defaultCharset())) {
+            listener.getLogger().println("Started by bulk operation " + operation.getId() + " on " + new Date());
+            PollingResult result = item.poll(listener);
+            long nanos = System.nanoTime() - start;
+
+            if (result.hasChanges() && operation.isCancelled()) {
+                operation.cancelled(1);
+                summary.record(job.getFullName(), host, PollingSummary.Outcome.NOT_POLLED, nanos, null);
+            } else if (result.hasChanges()) {
+                Action[] actions = {
+                    new CauseAction(new SCMTrigger.SCMTriggerCause("Bulk Builder polling")),
+                    new BulkOperationAction(operation.getId())
+                };
+                Hudson.getInstance().getQueue().schedule2(JobKind.asTask(job), item.getQuietPeriod(), actions);
+                summary.record(job.getFullName(), host, PollingSummary.Outcome.CHANGES, nanos, null);
+            } else {
+                summary.record(job.getFullName(), host, PollingSummary.Outcome.NO_CHANGES, nanos, null);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to poll job '" + job.getFullName() + "'", e);
+            summary.record(job.getFullName(), host, PollingSummary.Outcome.ERROR,
+                    System.nanoTime() - start, e.toString());
+        }
+    }
+
+    private static boolean isVetoed(Job<?, ?> job) {
+        for (SCMDecisionHandler handler : SCMDecisionHandler.all()) {
+            if (!handler.shouldPoll(job)) {
+                LOGGER.log(Level.FINE, "Polling of job ''{0}'' vetoed by {1}", new Object[]{job.getFullName(), handler});
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Is the trigger polling its job right now? Its runners are equal
+     * whenever they are for the same job.
+     */
+    private static boolean isBeingPolled(SCMTrigger trigger) {
+        return trigger.getDescriptor().getRunners().contains(trigger.new Runner());
+    }
+
+    private void submit(final String host, final Runnable poll) {
+        synchronized (hosts) {
+            Host h = hosts.get(host);
+            if (h == null) {
+                h = new Host();
+                hosts.put(host, h);
+            }
+            if (h.running >= PER_HOST) {
+                h.waiting.add(poll);
+                return;
+            }
+            h.running++;
+        }
+        execute(host, poll);
+    }
+
+    private void execute(final String host, final Runnable poll) {
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    poll.run();
+                } finally {
+                    Runnable next;
+                    synchronized (hosts) {
+                        Host h = hosts.get(host);
+                        next = h.waiting.poll();
+                        if (next == null && --h.running == 0) {
+                            hosts.remove(host);
+                        }
+                    }
+                    if (next != null) {
+                        execute(host, next);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Host a job polls, taken from its first SCM which is not a
+     * {@link NullSCM}
+     *
+     * @param item
+     * @return the host, or {@link #NONE} if the job has nothing to poll
+     */
+    static String hostOf(SCMTriggerItem item) {
+        if (item != null) {
+            for (SCM scm : item.getSCMs()) {
+                if (!(scm instanceof NullSCM)) {
+                    return hostOf(scm);
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Host an SCM polls, taken from its key
+     *
+     * @param scm
+     * @return the host, or the SCM type if no host can be found
+     */
+    static String hostOf(SCM scm) {
+        String host = hostOf(scm.getKey());
+        return host != null ? host : scm.getType();
+    }
+
+    /**
+     * Host named in an SCM key, after a scheme or user name
+     *
+     * @param key
+     * @return the host in lower case, or null if none
+     */
+    static String hostOf(String key) {
+        Matcher m = HOST.matcher(key);
+        return m.find() ? m.group(1).toLowerCase() : null;
+    }
+}
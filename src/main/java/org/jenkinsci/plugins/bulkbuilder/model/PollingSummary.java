@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Outcomes of the SCM polls of a bulk operation.
+ *
+ * @author simon
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class PollingSummary {
+
+    /**
+     * Result of polling one job
+     */
+    public enum Outcome {
+
+        /**
+         * Changes found, and a build scheduled
+         */
+        CHANGES,
+
+        NO_CHANGES,
+
+        /**
+         * Polling threw an exception
+         */
+        ERROR,
+
+        /**
+         * Job disabled, without an SCM or an SCM trigger, vetoed or already
+         * being polled by its trigger, or the operation cancelled before a
+         * build could be scheduled
+         */
+        NOT_POLLED
+    }
+
+    /**
+     * Number of job names kept for changes and errors
+     */
+    static final int MAX_NAMES = 100;
+
+    private final AtomicIntegerArray outcomes = new AtomicIntegerArray(Outcome.values().length);
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private final LinkedList<String> changed = new LinkedList<String>();
+
+    private final LinkedList<String> errors = new LinkedList<String>();
+
+    private final Map<String, Integer> polledByHost = new TreeMap<String, Integer>();
+
+    /**
+     * Number of polls with each outcome
+     *
+     * @return
+     */
+    @Exported
+    public Map<String, Integer> getOutcomes() {
+        Map<String, Integer> result = new TreeMap<String, Integer>();
+        for (Outcome outcome : Outcome.values()) {
+            result.put(outcome.name(), outcomes.get(outcome.ordinal()));
+        }
+        return result;
+    }
+
+    /**
+     * Number of polls with an outcome
+     *
+     * @param outcome
+     * @return
+     */
+    public int getCount(Outcome outcome) {
+        return outcomes.get(outcome.ordinal());
+    }
+
+    /**
+     * Mean time taken by a poll, in milliseconds
+     *
+     * @return
+     */
+    @Exported
+    public double getMeanMillis() {
+        int polls = getCount(Outcome.CHANGES) + getCount(Outcome.NO_CHANGES) + getCount(Outcome.ERROR);
+        return polls == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMillis(totalNanos.get()) / polls;
+    }
+
+    /**
+     * Longest time taken by a poll, in milliseconds
+     *
+     * @return
+     */
+    @Exported
+    public long getMaxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    /**
+     * Jobs in which changes were found, up to {@value #MAX_NAMES}
+     *
+     * @return
+     */
+    @Exported
+    public List<String> getChanged() {
+        synchronized (changed) {
+            return new ArrayList<String>(changed);
+        }
+    }
+
+    /**
+     * Jobs whose polling failed, with the error, up to {@value #MAX_NAMES}
+     *
+     * @return
+     */
+    @Exported
+    public List<String> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<String>(errors);
+        }
+    }
+
+    /**
+     * Number of jobs polled against each SCM host
+     *
+     * @return
+     */
+    @Exported
+    public Map<String, Integer> getPolledByHost() {
+        synchronized (polledByHost) {
+            return new TreeMap<String, Integer>(polledByHost);
+        }
+    }
+
+    final void record(String job, String host, Outcome outcome, long nanos, String error) {
+        outcomes.incrementAndGet(outcome.ordinal());
+        if (outcome == Outcome.NOT_POLLED) {
+            return;
+        }
+
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // retry
+        }
+
+        synchronized (polledByHost) {
+            Integer count = polledByHost.get(host);
+            polledByHost.put(host, count == null ? 1 : count + 1);
+        }
+
+        if (outcome == Outcome.CHANGES) {
+            add(changed, job);
+        } else if (outcome == Outcome.ERROR) {
+            add(errors, job + ": " + error);
+        }
+    }
+
+    private static void add(LinkedList<String> names, String name) {
+        synchronized (names) {
+            if (names.size() < MAX_NAMES) {
+                names.add(name);
+            }
+        }
+    }
+}
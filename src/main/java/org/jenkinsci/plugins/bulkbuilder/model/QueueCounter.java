@@ -0,0 +1,279 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Number of items in the Jenkins queue by state, kept up to date from queue
+ * events so reading it does not copy the queue.
+ *
+ * The first read takes a snapshot of the queue under its lock to pick up
+ * items queued before the counter was listening; from then on only events
+ * are used. The snapshot is taken as the system, so the counts cover every
+ * item whichever user happens to read first.
+ *
+ * @author simon
+ */
+@ExportedBean
+@Extension
+public class QueueCounter {
+
+    /**
+     * States of a queue item
+     */
+    public enum State {
+
+        WAITING, BLOCKED, BUILDABLE, PENDING
+    }
+
+    private static final class Tracked {
+        State state;
+        final boolean bulk;
+
+        Tracked(State state, boolean bulk) {
+            this.state = state;
+            this.bulk = bulk;
+        }
+    }
+
+    /**
+     * Queue item ID to its state, guarded by this
+     */
+    private final Map<Long, Tracked> items = new HashMap<Long, Tracked>();
+
+    /**
+     * Items in each state, indexed by ordinal
+     */
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(State.values().length);
+
+    /**
+     * Items in each state scheduled by a bulk operation
+     */
+    private final AtomicIntegerArray bulkCounts = new AtomicIntegerArray(State.values().length);
+
+    private volatile boolean synced;
+
+    public static QueueCounter get() {
+        return Hudson.getInstance().getExtensionList(QueueCounter.class).get(0);
+    }
+
+    /**
+     * Number of items in the queue
+     *
+     * @return
+     */
+    @Exported
+    public int getSize() {
+        return sum(counts);
+    }
+
+    /**
+     * Number of items in the queue scheduled by a bulk operation
+     *
+     * @return
+     */
+    @Exported
+    public int getBulk() {
+        return sum(bulkCounts);
+    }
+
+    /**
+     * Fraction of the queue scheduled by bulk operations
+     *
+     * @return a value between 0 and 1
+     */
+    @Exported
+    public double getBulkShare() {
+        int size = getSize();
+        return size == 0 ? 0 : (double) getBulk() / size;
+    }
+
+    /**
+     * Number of items in each state
+     *
+     * @return
+     */
+    @Exported
+    public Map<State, Integer> getStates() {
+        return byState(counts);
+    }
+
+    /**
+     * Number of items scheduled by bulk operations in each state
+     *
+     * @return
+     */
+    @Exported
+    public Map<State, Integer> getBulkStates() {
+        return byState(bulkCounts);
+    }
+
+    /**
+     * Number of items in a state
+     *
+     * @param state
+     * @return
+     */
+    public int getCount(State state) {
+        ensureSynced();
+        return counts.get(state.ordinal());
+    }
+
+    private int sum(AtomicIntegerArray array) {
+        ensureSynced();
+        int total = 0;
+        for (int i = 0; i < array.length(); i++) {
+            total += array.get(i);
+        }
+        return total;
+    }
+
+    private Map<State, Integer> byState(AtomicIntegerArray array) {
+        ensureSynced();
+        Map<State, Integer> map = new HashMap<State, Integer>();
+        for (State state : State.values()) {
+            map.put(state, array.get(state.ordinal()));
+        }
+        return map;
+    }
+
+    private void ensureSynced() {
+        if (!synced) {
+            Queue.withLock(new Runnable() {
+                public void run() {
+                    resync();
+                }
+            });
+        }
+    }
+
+    /**
+     * Rebuild the counts from the queue, called with the queue lock held
+     */
+    final void resync() {
+        Queue.Item[] queued;
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            queued = Hudson.getInstance().getQueue().getItems();
+        }
+
+        synchronized (this) {
+            items.clear();
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+                bulkCounts.set(i, 0);
+            }
+            for (Queue.Item item : queued) {
+                enter(item, stateOf(item));
+            }
+            synced = true;
+        }
+    }
+
+    private static State stateOf(Queue.Item item) {
+        if (item instanceof Queue.WaitingItem) {
+            return State.WAITING;
+        }
+        if (item instanceof Queue.BlockedItem) {
+            return State.BLOCKED;
+        }
+        if (item instanceof Queue.BuildableItem && ((Queue.BuildableItem) item).isPending()) {
+            return State.PENDING;
+        }
+        return State.BUILDABLE;
+    }
+
+    final synchronized void enter(Queue.Item item, State state) {
+        Tracked tracked = items.get(item.getId());
+        if (tracked == null) {
+            tracked = new Tracked(state, BulkOperationAction.of(item) != null);
+            items.put(item.getId(), tracked);
+        } else if (tracked.state == state) {
+            return;
+        } else {
+            move(tracked, -1);
+            tracked.state = state;
+        }
+        move(tracked, 1);
+    }
+
+    final synchronized void left(Queue.Item item) {
+        Tracked tracked = items.remove(item.getId());
+        if (tracked != null) {
+            move(tracked, -1);
+        }
+    }
+
+    private void move(Tracked tracked, int delta) {
+        counts.addAndGet(tracked.state.ordinal(), delta);
+        if (tracked.bulk) {
+            bulkCounts.addAndGet(tracked.state.ordinal(), delta);
+        }
+    }
+
+    @Extension
+    public static class QueueListenerImpl extends QueueListener {
+
+        @Override
+        public void onEnterWaiting(Queue.WaitingItem wi) {
+            get().enter(wi, State.WAITING);
+        }
+
+        @Override
+        public void onEnterBlocked(Queue.BlockedItem bi) {
+            get().enter(bi, State.BLOCKED);
+        }
+
+        @Override
+        public void onEnterBuildable(Queue.BuildableItem bi) {
+            get().enter(bi, State.BUILDABLE);
+        }
+
+        /**
+         * An item leaving buildable is either pending on an executor or
+         * about to enter another state, which then replaces pending
+         */
+        @Override
+        public void onLeaveBuildable(Queue.BuildableItem bi) {
+            get().enter(bi, State.PENDING);
+        }
+
+        @Override
+        public void onLeft(Queue.LeftItem li) {
+            get().left(li);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the queue items each bulk operation has in the build queue, so an
+ * operation's items can be found without scanning the whole queue.
+ *
+ * Items are keyed by their ID, which stays the same as they move between
+ * the waiting, blocked and buildable states; the entry is replaced with the
+ * current item on every move.
+ *
+ * @author simon
+ */
+@Extension
+public class QueueItemIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(QueueItemIndex.class.getName());
+
+    private final ConcurrentMap<String, ConcurrentMap<Long, Queue.Item>> items =
+            new ConcurrentHashMap<String, ConcurrentMap<Long, Queue.Item>>();
+
+    public static QueueItemIndex get() {
+        return Hudson.getInstance().getExtensionList(QueueItemIndex.class).get(0);
+    }
+
+    /**
+     * Number of items an operation has in the queue
+     *
+     * @param operationId
+     * @return
+     */
+    public int size(String operationId) {
+        Map<Long, Queue.Item> forOperation = items.get(operationId);
+        return forOperation == null ? 0 : forOperation.size();
+    }
+
+    /**
+     * Remove an operation's items from the queue in one sweep under the
+     * queue lock. Items the current user may not cancel are left alone.
+     *
+     * @param operationId
+     * @return number of items removed
+     */
+    public int cancel(final String operationId) {
+        final Queue queue = Hudson.getInstance().getQueue();
+        final int[] removed = new int[1];
+
+        Queue.withLock(new Runnable() {
+            public void run() {
+                Map<Long, Queue.Item> forOperation = items.get(operationId);
+                if (forOperation == null) {
+                    return;
+                }
+                // cancelling fires onLeft, which updates the index
+                List<Queue.Item> snapshot = new ArrayList<Queue.Item>(forOperation.values());
+                for (Queue.Item item : snapshot) {
+                    if (item.hasCancelPermission() && queue.cancel(item)) {
+                        removed[0]++;
+                    }
+                }
+            }
+        });
+
+        LOGGER.log(Level.FINE, "Removed {0} queue items of bulk operation {1}", new Object[]{removed[0], operationId});
+        return removed[0];
+    }
+
+    private void put(Queue.Item item) {
+        String operationId = BulkOperationAction.of(item);
+        if (operationId == null) {
+            return;
+        }
+        ConcurrentMap<Long, Queue.Item> forOperation = items.get(operationId);
+        if (forOperation == null) {
+            ConcurrentMap<Long, Queue.Item> created = new ConcurrentHashMap<Long, Queue.Item>();
+            forOperation = items.putIfAbsent(operationId, created);
+            if (forOperation == null) {
+                forOperation = created;
+            }
+        }
+        forOperation.put(item.getId(), item);
+    }
+
+    private void remove(Queue.Item item) {
+        String operationId = BulkOperationAction.of(item);
+        if (operationId == null) {
+            return;
+        }
+        ConcurrentMap<Long, Queue.Item> forOperation = items.get(operationId);
+        if (forOperation != null) {
+            forOperation.remove(item.getId());
+            if (forOperation.isEmpty()) {
+                items.remove(operationId, forOperation);
+            }
+        }
+    }
+
+    /**
+     * Listener calls are made with the queue lock held, so the index changes
+     * in step with the queue
+     */
+    @Extension
+    public static class QueueListenerImpl extends QueueListener {
+
+        @Override
+        public void onEnterWaiting(Queue.WaitingItem wi) {
+            get().put(wi);
+        }
+
+        @Override
+        public void onEnterBlocked(Queue.BlockedItem bi) {
+            get().put(bi);
+        }
+
+        @Override
+        public void onEnterBuildable(Queue.BuildableItem bi) {
+            get().put(bi);
+        }
+
+        @Override
+        public void onLeft(Queue.LeftItem li) {
+            get().remove(li);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Token bucket limiting the rate at which a bulk operation schedules builds.
+ *
+ * The bucket starts full, holds at most {@code burst} tokens and refills at
+ * {@code permitsPerSecond}. Each scheduled build takes one token; when the
+ * bucket is empty the caller waits until the next token is due.
+ *
+ * @author simon
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class RateLimiter {
+
+    private final double permitsPerSecond;
+
+    private final int burst;
+
+    private final Ticker ticker;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    private long waitedNanos;
+
+    private int acquired;
+
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, Ticker.systemTicker());
+    }
+
+    RateLimiter(double permitsPerSecond, int burst, Ticker ticker) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + permitsPerSecond);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.ticker = ticker;
+        this.tokens = this.burst;
+        this.lastRefill = ticker.read();
+    }
+
+    /**
+     * Take a token, waiting until one is available
+     *
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        long wait = reserve();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Take a token, possibly ahead of time
+     *
+     * @return nanoseconds the caller must wait before using it
+     */
+    synchronized long reserve() {
+        refill();
+        acquired++;
+        tokens -= 1;
+        if (tokens >= 0) {
+            return 0;
+        }
+        long wait = (long) Math.ceil(-tokens / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+        waitedNanos += wait;
+        return wait;
+    }
+
+    private void refill() {
+        long now = ticker.read();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+
+    @Exported
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    @Exported
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Tokens currently in the bucket
+     *
+     * @return
+     */
+    @Exported
+    public synchronized int getAvailableTokens() {
+        refill();
+        return (int) Math.max(0, Math.floor(tokens));
+    }
+
+    /**
+     * Number of tokens taken so far
+     *
+     * @return
+     */
+    @Exported
+    public synchronized int getAcquired() {
+        return acquired;
+    }
+
+    /**
+     * Total time spent waiting for tokens, in milliseconds
+     *
+     * @return
+     */
+    @Exported
+    public synchronized long getWaitedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitedNanos);
+    }
+
+    @Override
+    public String toString() {
+        return permitsPerSecond + "/s, burst " + burst;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import com.google.common.base.Predicate;
+import hudson.model.Result;
+
+/**
+ * Predicates over the result of a job's last completed build, where null
+ * means the job has never completed a build.
+ *
+ * @author simon
+ */
+final class ResultFilters {
+
+    private ResultFilters() {
+    }
+
+    /**
+     * Never built, or last result worse than or equal to the threshold
+     *
+     * @param threshold
+     * @return
+     */
+    static Predicate<Result> worseOrEqualTo(final Result threshold) {
+        return new Predicate<Result>() {
+            @Override
+            public boolean apply(Result result) {
+                return result == null || result.isWorseOrEqualTo(threshold);
+            }
+        };
+    }
+
+    /**
+     * Last result exactly the given result
+     *
+     * @param expected
+     * @return
+     */
+    static Predicate<Result> exactly(final Result expected) {
+        return new Predicate<Result>() {
+            @Override
+            public boolean apply(Result result) {
+                return result == expected;
+            }
+        };
+    }
+}
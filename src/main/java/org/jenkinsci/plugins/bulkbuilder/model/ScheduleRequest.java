@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.Action;
+import hudson.model.Queue;
+import java.util.List;
+
+/**
+ * A resolved request to put a task in the build queue.
+ *
+ * Immutable object
+ *
+ * @author simon
+ */
+public final class ScheduleRequest {
+
+    private final Queue.Task task;
+
+    private final int quietPeriod;
+
+    private final List<Action> actions;
+
+    public ScheduleRequest(Queue.Task task, int quietPeriod, List<Action> actions) {
+        this.task = task;
+        this.quietPeriod = quietPeriod;
+        this.actions = actions;
+    }
+
+    public Queue.Task getTask() {
+        return task;
+    }
+
+    public int getQuietPeriod() {
+        return quietPeriod;
+    }
+
+    public List<Action> getActions() {
+        return actions;
+    }
+
+    @Override
+    public String toString() {
+        return task.getFullDisplayName();
+    }
+}
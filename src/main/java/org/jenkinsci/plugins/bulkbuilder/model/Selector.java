@@ -0,0 +1,760 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import hudson.model.Job;
+import hudson.model.Result;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A job selection query, such as
+ * {@code status>=UNSTABLE and label=linux and name~'svc-*' and lastBuild>7d}.
+ *
+ * Each term compares a field of a job with a value:
+ * <ul>
+ * <li>{@code name}: {@code =} and {@code !=} compare the full name,
+ * {@code ~} and {@code !~} match globs as {@link JobNameMatcher} does</li>
+ * <li>{@code label}: the assigned label, or {@code any} if the job has
+ * none, compared in the same ways</li>
+ * <li>{@code status}: the result of the last completed build, compared with
+ * {@code = != < <= > >=}. Results are ordered from SUCCESS to ABORTED as in
+ * {@link Result}, so {@code status>=UNSTABLE} selects unstable or worse.
+ * Jobs never built count as worse than any result, as for the build
+ * types</li>
+ * <li>{@code lastBuild}: the age of the last completed build, in seconds
+ * or with a unit of {@code s m h d w}, compared with {@code < <= > >=}.
+ * {@code today} stands for the time since midnight, so
+ * {@code lastBuild<today} selects jobs built since midnight. Jobs never
+ * built are older than any age</li>
+ * <li>{@code duration}: how long the last completed build took, compared
+ * in the same way. Jobs never built never match</li>
+ * </ul>
+ * Terms are combined with {@code and}, {@code or}, {@code not} and
+ * parentheses; {@code and} binds tighter than {@code or}. Values containing
+ * spaces or operator characters must be quoted.
+ *
+ * The parsed tree is reordered before use so that, within each
+ * {@code and}/{@code or}, cheap checks on names and labels run before checks
+ * which read build history, and short circuit them where they can.
+ *
+ * @author simon
+ */
+public final class Selector implements Predicate<Job<?, ?>> {
+
+    /**
+     * Relative cost of evaluating a node, cheapest first
+     */
+    enum Cost {
+        /**
+         * Compares strings the job already holds
+         */
+        NAME,
+
+        /**
+         * Resolves the job's assigned label
+         */
+        LABEL,
+
+        /**
+         * Looks the job up in a range of the sorted {@link LastResultIndex},
+         * fetched once per selector
+         */
+        INDEX,
+
+        /**
+         * Reads build history, if only through the {@link LastResultIndex}
+         */
+        HISTORY
+    }
+
+    private static final Pattern DURATION = Pattern.compile("(\\d+)([smhdw]?)");
+
+    /**
+     * {@code lastBuild} value standing for the time since midnight
+     */
+    private static final String TODAY = "today";
+
+    private static final Comparator<Node> CHEAPEST_FIRST = new Comparator<Node>() {
+        public int compare(Node a, Node b) {
+            return a.getCost().compareTo(b.getCost());
+        }
+    };
+
+    private final Node root;
+
+    private Selector(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Parse a query
+     *
+     * @param query
+     * @return
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    public static Selector parse(String query) {
+        Parser parser = new Parser(query);
+        Node node = parser.parseOr();
+        if (parser.peek() != null) {
+            throw parser.error("Unexpected '" + parser.peek() + "'");
+        }
+        return new Selector(node.reorder());
+    }
+
+    /**
+     * Select jobs matching all the filters, evaluating the cheapest first.
+     * Filters other than selectors are assumed to read build history.
+     *
+     * @param filters
+     * @return
+     */
+    static Selector allOf(List<? extends Predicate<Job<?, ?>>> filters) {
+        List<Node> children = new ArrayList<Node>(filters.size());
+        for (Predicate<Job<?, ?>> filter : filters) {
+            if (filter instanceof Selector) {
+                children.add(((Selector) filter).root);
+            } else if (filter instanceof Node) {
+                children.add((Node) filter);
+            } else {
+                children.add(new Opaque(filter));
+            }
+        }
+        return new Selector(new Junction(true, children).reorder());
+    }
+
+    /**
+     * A single term, as if parsed from {@code field op value}
+     *
+     * @param field
+     * @param op
+     * @param value
+     * @return
+     * @throws IllegalArgumentException if the term is not valid
+     */
+    static Selector term(String field, String op, String value) {
+        return new Selector(Term.compile(field, op, value));
+    }
+
+    @Override
+    public boolean apply(Job<?, ?> job) {
+        return root.apply(job);
+    }
+
+    /**
+     * Cost of evaluating the most expensive node
+     *
+     * @return
+     */
+    Cost getCost() {
+        return root.getCost();
+    }
+
+    /**
+     * The query as it is evaluated, after reordering
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+
+    abstract static class Node implements Predicate<Job<?, ?>> {
+
+        abstract Cost getCost();
+
+        Node reorder() {
+            return this;
+        }
+    }
+
+    /**
+     * An {@code and} or {@code or} of its children, evaluated in order
+     */
+    static final class Junction extends Node {
+
+        private final boolean and;
+
+        private final List<Node> children;
+
+        private final Cost cost;
+
+        Junction(boolean and, List<Node> children) {
+            this.and = and;
+            this.children = children;
+            Cost max = Cost.NAME;
+            for (Node child : children) {
+                if (child.getCost().compareTo(max) > 0) {
+                    max = child.getCost();
+                }
+            }
+            this.cost = max;
+        }
+
+        @Override
+        public boolean apply(Job<?, ?> job) {
+            for (Node child : children) {
+                if (child.apply(job) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        }
+
+        @Override
+        Cost getCost() {
+            return cost;
+        }
+
+        /**
+         * Flatten nested junctions of the same kind and put the cheapest
+         * children first, keeping the written order between equal costs
+         */
+        @Override
+        Node reorder() {
+            List<Node> flat = new ArrayList<Node>(children.size());
+            for (Node child : children) {
+                Node reordered = child.reorder();
+                if (reordered instanceof Junction && ((Junction) reordered).and == and) {
+                    flat.addAll(((Junction) reordered).children);
+                } else {
+                    flat.add(reordered);
+                }
+            }
+            if (flat.size() == 1) {
+                return flat.get(0);
+            }
+            Collections.sort(flat, CHEAPEST_FIRST);
+            return new Junction(and, flat);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Node child : children) {
+                if (sb.length() > 0) {
+                    sb.append(and ? " and " : " or ");
+                }
+                if (child instanceof Junction) {
+                    sb.append('(').append(child).append(')');
+                } else {
+                    sb.append(child);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    static final class Not extends Node {
+
+        private final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        public boolean apply(Job<?, ?> job) {
+            return !child.apply(job);
+        }
+
+        @Override
+        Cost getCost() {
+            return child.getCost();
+        }
+
+        @Override
+        Node reorder() {
+            return new Not(child.reorder());
+        }
+
+        @Override
+        public String toString() {
+            return child instanceof Junction ? "not (" + child + ")" : "not " + child;
+        }
+    }
+
+    /**
+     * A predicate from elsewhere, of unknown cost
+     */
+    static final class Opaque extends Node {
+
+        private final Predicate<Job<?, ?>> predicate;
+
+        Opaque(Predicate<Job<?, ?>> predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        public boolean apply(Job<?, ?> job) {
+            return predicate.apply(job);
+        }
+
+        @Override
+        Cost getCost() {
+            return Cost.HISTORY;
+        }
+
+        @Override
+        public String toString() {
+            return predicate.toString();
+        }
+    }
+
+    /**
+     * A comparison of one field of the job
+     */
+    static final class Term extends Node {
+
+        private final String text;
+
+        private final Predicate<Job<?, ?>> predicate;
+
+        private final Cost cost;
+
+        private Term(String text, Predicate<Job<?, ?>> predicate, Cost cost) {
+            this.text = text;
+            this.predicate = predicate;
+            this.cost = cost;
+        }
+
+        static Term compile(String field, String op, String value) {
+            String text = field + op + (value.matches("[\\w.*?!,-]+") ? value : "'" + value + "'");
+            String f = field.toLowerCase(Locale.ENGLISH);
+
+            if (f.equals("name")) {
+                return new Term(text, names(op, value), Cost.NAME);
+            }
+            if (f.equals("label")) {
+                return new Term(text, Predicates.compose(strings(op, value, field), LABEL_NAME), Cost.LABEL);
+            }
+            if (f.equals("status")) {
+                return new Term(text, Predicates.compose(results(op, parseResult(value)), lastResult()),
+                        Cost.HISTORY);
+            }
+            if (f.equals("lastbuild")) {
+                return new Term(text, lastBuilds(op, value), Cost.INDEX);
+            }
+            if (f.equals("duration")) {
+                return new Term(text, durations(op, parseDuration(value)), Cost.INDEX);
+            }
+            throw new IllegalArgumentException("Unknown field '" + field + "'");
+        }
+
+        @Override
+        public boolean apply(Job<?, ?> job) {
+            return predicate.apply(job);
+        }
+
+        @Override
+        Cost getCost() {
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    private static final Function<Job<?, ?>, String> FULL_NAME = new Function<Job<?, ?>, String>() {
+        @Override
+        public String apply(Job<?, ?> job) {
+            return job.getFullName();
+        }
+    };
+
+    private static final Function<Job<?, ?>, String> LABEL_NAME = new Function<Job<?, ?>, String>() {
+        @Override
+        public String apply(Job<?, ?> job) {
+            return LabelSpreading.nameOf(JobKind.of(job).isSchedulable() ? JobKind.getAssignedLabel(job) : null);
+        }
+    };
+
+    /**
+     * Last completed build of a job, from the {@link LastResultIndex}. The
+     * index is looked up on first use so queries can be parsed without
+     * Jenkins running.
+     */
+    private static final class LastBuild {
+
+        private volatile LastResultIndex index;
+
+        LastResultIndex.Entry get(Job<?, ?> job) {
+            if (index == null) {
+                index = LastResultIndex.get();
+            }
+            return index.getEntry(job);
+        }
+    }
+
+    private static Function<Job<?, ?>, Result> lastResult() {
+        final LastBuild lastBuild = new LastBuild();
+        return new Function<Job<?, ?>, Result>() {
+            @Override
+            public Result apply(Job<?, ?> job) {
+                LastResultIndex.Entry entry = lastBuild.get(job);
+                return entry == null ? null : entry.getResult();
+            }
+        };
+    }
+
+    /**
+     * Globs match the display name too, as for the build pattern
+     */
+    private static Predicate<Job<?, ?>> names(String op, String value) {
+        if (op.equals("~") || op.equals("!~")) {
+            final JobNameMatcher matcher = JobNameMatcher.compile(value);
+            Predicate<Job<?, ?>> matches = new Predicate<Job<?, ?>>() {
+                @Override
+                public boolean apply(Job<?, ?> job) {
+                    return matcher.matches(job);
+                }
+            };
+            return op.equals("~") ? matches : Predicates.not(matches);
+        }
+        return Predicates.compose(strings(op, value, "name"), FULL_NAME);
+    }
+
+    private static Predicate<String> strings(String op, final String value, String field) {
+        if (op.equals("=") || op.equals("!=")) {
+            Predicate<String> equal = Predicates.equalTo(value);
+            return op.equals("=") ? equal : Predicates.not(equal);
+        }
+        if (op.equals("~") || op.equals("!~")) {
+            final JobNameMatcher matcher = JobNameMatcher.compile(value);
+            Predicate<String> matches = new Predicate<String>() {
+                @Override
+                public boolean apply(String name) {
+                    return matcher.matches(name, null);
+                }
+            };
+            return op.equals("~") ? matches : Predicates.not(matches);
+        }
+        throw new IllegalArgumentException("Operator '" + op + "' cannot be used with " + field);
+    }
+
+    private static Predicate<Result> results(String op, Result r) {
+        Predicate<Result> worseOrEqual = ResultFilters.worseOrEqualTo(r);
+        Predicate<Result> exactly = ResultFilters.exactly(r);
+
+        if (op.equals("=")) {
+            return exactly;
+        } else if (op.equals("!=")) {
+            return Predicates.not(exactly);
+        } else if (op.equals(">=")) {
+            return worseOrEqual;
+        } else if (op.equals(">")) {
+            return Predicates.and(worseOrEqual, Predicates.not(exactly));
+        } else if (op.equals("<")) {
+            return Predicates.not(worseOrEqual);
+        } else if (op.equals("<=")) {
+            return Predicates.or(exactly, Predicates.not(worseOrEqual));
+        }
+        throw new IllegalArgumentException("Operator '" + op + "' cannot be used with status");
+    }
+
+    /**
+     * Jobs whose last build is older or newer than a cutoff, from the
+     * start time index
+     */
+    private static Predicate<Job<?, ?>> lastBuilds(final String op, final String value) {
+        checkRangeOperator(op, "lastBuild");
+        if (!value.equalsIgnoreCase(TODAY)) {
+            parseDuration(value);
+        }
+
+        return inRange(new Supplier<Set<String>>() {
+            @Override
+            public Set<String> get() {
+                long now = System.currentTimeMillis();
+                long cutoff = value.equalsIgnoreCase(TODAY) ? midnight(now) : now - parseDuration(value);
+
+                // older than the cutoff age means started before the cutoff time
+                LastResultIndex index = LastResultIndex.get();
+                if (op.equals(">")) {
+                    return index.getStartedBetween(Long.MIN_VALUE, cutoff);
+                } else if (op.equals(">=")) {
+                    return index.getStartedBetween(Long.MIN_VALUE, cutoff + 1);
+                } else if (op.equals("<")) {
+                    return index.getStartedBetween(cutoff + 1, Long.MAX_VALUE);
+                } else {
+                    return index.getStartedBetween(cutoff, Long.MAX_VALUE);
+                }
+            }
+        });
+    }
+
+    /**
+     * Jobs whose last build took more or less than a duration, from the
+     * duration index
+     */
+    private static Predicate<Job<?, ?>> durations(final String op, final long millis) {
+        checkRangeOperator(op, "duration");
+
+        return inRange(new Supplier<Set<String>>() {
+            @Override
+            public Set<String> get() {
+                LastResultIndex index = LastResultIndex.get();
+                if (op.equals(">")) {
+                    return index.getDurationBetween(millis + 1, Long.MAX_VALUE);
+                } else if (op.equals(">=")) {
+                    return index.getDurationBetween(millis, Long.MAX_VALUE);
+                } else if (op.equals("<")) {
+                    return index.getDurationBetween(0, millis);
+                } else {
+                    return index.getDurationBetween(0, millis + 1);
+                }
+            }
+        });
+    }
+
+    private static void checkRangeOperator(String op, String field) {
+        if (!op.equals("<") && !op.equals("<=") && !op.equals(">") && !op.equals(">=")) {
+            throw new IllegalArgumentException("Operator '" + op + "' cannot be used with " + field);
+        }
+    }
+
+    /**
+     * Jobs named in a set fetched the first time the predicate is applied,
+     * so every job in a selection is compared against the same range
+     */
+    private static Predicate<Job<?, ?>> inRange(Supplier<Set<String>> range) {
+        final Supplier<Set<String>> names = Suppliers.memoize(range);
+        return new Predicate<Job<?, ?>>() {
+            @Override
+            public boolean apply(Job<?, ?> job) {
+                return names.get().contains(job.getFullName());
+            }
+        };
+    }
+
+    private static long midnight(long now) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static Result parseResult(String value) {
+        for (Result r : new Result[] {Result.SUCCESS, Result.UNSTABLE, Result.FAILURE, Result.NOT_BUILT, Result.ABORTED}) {
+            if (r.toString().equalsIgnoreCase(value)) {
+                return r;
+            }
+        }
+        throw new IllegalArgumentException("Unknown status '" + value + "'");
+    }
+
+    /**
+     * Parse a duration such as {@code 90}, {@code 30m} or {@code 7d}
+     *
+     * @param value
+     * @return milliseconds
+     */
+    static long parseDuration(String value) {
+        Matcher m = DURATION.matcher(value.toLowerCase(Locale.ENGLISH));
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Invalid duration '" + value + "'");
+        }
+        long n = Long.parseLong(m.group(1));
+        switch (m.group(2).isEmpty() ? 's' : m.group(2).charAt(0)) {
+            case 'm':
+                return TimeUnit.MINUTES.toMillis(n);
+            case 'h':
+                return TimeUnit.HOURS.toMillis(n);
+            case 'd':
+                return TimeUnit.DAYS.toMillis(n);
+            case 'w':
+                return TimeUnit.DAYS.toMillis(7 * n);
+            default:
+                return TimeUnit.SECONDS.toMillis(n);
+        }
+    }
+
+    /**
+     * Recursive descent parser over a simple tokenizer
+     */
+    private static final class Parser {
+
+        private static final String OPERATORS = "!=~<>";
+
+        private final String query;
+
+        private int pos;
+
+        /**
+         * Next token, or null at the end
+         */
+        private String token;
+
+        private boolean quoted;
+
+        private int tokenStart;
+
+        Parser(String query) {
+            this.query = query;
+            advance();
+            if (token == null) {
+                throw new IllegalArgumentException("Empty selector");
+            }
+        }
+
+        String peek() {
+            return token;
+        }
+
+        Node parseOr() {
+            List<Node> children = new ArrayList<Node>();
+            children.add(parseAnd());
+            while (isKeyword("or")) {
+                advance();
+                children.add(parseAnd());
+            }
+            return children.size() == 1 ? children.get(0) : new Junction(false, children);
+        }
+
+        private Node parseAnd() {
+            List<Node> children = new ArrayList<Node>();
+            children.add(parseUnary());
+            while (isKeyword("and")) {
+                advance();
+                children.add(parseUnary());
+            }
+            return children.size() == 1 ? children.get(0) : new Junction(true, children);
+        }
+
+        private Node parseUnary() {
+            if (isKeyword("not")) {
+                advance();
+                return new Not(parseUnary());
+            }
+            if (isSymbol("(")) {
+                advance();
+                Node node = parseOr();
+                if (!isSymbol(")")) {
+                    throw error("Expected ')'");
+                }
+                advance();
+                return node;
+            }
+
+            String field = expectWord("field name");
+            if (token == null || quoted || OPERATORS.indexOf(token.charAt(0)) < 0) {
+                throw error("Expected an operator after '" + field + "'");
+            }
+            String op = token;
+            advance();
+            String value = expectWord("value");
+            try {
+                return Term.compile(field, op, value);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(e.getMessage() + " in selector: " + query, e);
+            }
+        }
+
+        private String expectWord(String what) {
+            if (token == null || !quoted && (isSymbol("(") || isSymbol(")") || OPERATORS.indexOf(token.charAt(0)) >= 0)) {
+                throw error("Expected a " + what);
+            }
+            String word = token;
+            advance();
+            return word;
+        }
+
+        private boolean isKeyword(String keyword) {
+            return token != null && !quoted && token.equalsIgnoreCase(keyword);
+        }
+
+        private boolean isSymbol(String symbol) {
+            return token != null && !quoted && token.equals(symbol);
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + tokenStart + " in selector: " + query);
+        }
+
+        private void advance() {
+            while (pos < query.length() && Character.isWhitespace(query.charAt(pos))) {
+                pos++;
+            }
+            tokenStart = pos;
+            quoted = false;
+            if (pos >= query.length()) {
+                token = null;
+                return;
+            }
+
+            char c = query.charAt(pos);
+            if (c == '(' || c == ')') {
+                token = String.valueOf(c);
+                pos++;
+            } else if (c == '\'' || c == '"') {
+                int end = query.indexOf(c, pos + 1);
+                if (end < 0) {
+                    throw error("Unterminated quote");
+                }
+                token = query.substring(pos + 1, end);
+                quoted = true;
+                pos = end + 1;
+            } else if (OPERATORS.indexOf(c) >= 0) {
+                int end = pos + 1;
+                if (end < query.length() && (query.charAt(end) == '=' || c == '!' && query.charAt(end) == '~')) {
+                    end++;
+                }
+                token = query.substring(pos, end);
+                pos = end;
+                if (token.equals("!")) {
+                    throw error("Expected '!=' or '!~'");
+                }
+            } else {
+                int end = pos;
+                while (end < query.length() && !Character.isWhitespace(query.charAt(end))
+                        && "()'\"".indexOf(query.charAt(end)) < 0 && OPERATORS.indexOf(query.charAt(end)) < 0) {
+                    end++;
+                }
+                token = query.substring(pos, end);
+                pos = end;
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.ListView;
+import hudson.model.Saveable;
+import hudson.model.View;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Item counts of views, computed in the background and cached.
+ *
+ * Counting the items of a view can mean evaluating its filters against every
+ * job, so the Bulk Builder page does not count them while rendering. Counts
+ * are per user, since views only list the items a user can read. They are
+ * computed on a small pool of their own, so a burst of users does not tie
+ * up the shared {@link jenkins.util.Timer}.
+ *
+ * A view's counts are dropped when the view is saved, and when an item is
+ * created, changed, moved or deleted unless the view only lists named jobs,
+ * which it drops itself and saves. Everything is dropped when the Jenkins
+ * configuration, which holds the top level views, is saved.
+ *
+ * @author simon
+ */
+@Extension
+public class ViewSizeCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ViewSizeCache.class.getName());
+
+    /**
+     * Number of users whose counts may be computed at the same time
+     */
+    static final int THREADS = SystemProperties.getInteger(ViewSizeCache.class.getName() + ".threads", 2);
+
+    /**
+     * Number of users allowed to wait for a free thread
+     */
+    static final int BACKLOG = SystemProperties.getInteger(ViewSizeCache.class.getName() + ".backlog", 50);
+
+    private final ExecutorService executor;
+
+    /**
+     * User name to view name to item count
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, Integer>> sizes =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Integer>>();
+
+    /**
+     * Users whose counts are being computed
+     */
+    private final Set<String> computing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Bumped on invalidation so counts computed before it are discarded
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Generation at which all counts were last dropped
+     */
+    private long allInvalidated;
+
+    /**
+     * Generation at which each view's counts were last dropped
+     */
+    private final Map<String, Long> viewInvalidated = new ConcurrentHashMap<String, Long>();
+
+    public ViewSizeCache() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(BACKLOG),
+                new NamingThreadFactory(new DaemonThreadFactory(), "BulkBuilder.viewSizes"));
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    public static ViewSizeCache get() {
+        return Hudson.getInstance().getExtensionList(ViewSizeCache.class).get(0);
+    }
+
+    /**
+     * Get the cached item count of a view for the current user
+     *
+     * @param view
+     * @return the count, or null if not yet computed
+     */
+    public Integer getSize(View view) {
+        Map<String, Integer> user = sizes.get(Jenkins.getAuthentication2().getName());
+        return user == null ? null : user.get(view.getViewName());
+    }
+
+    /**
+     * Get the item counts of views for the current user, starting their
+     * computation in the background if any are missing
+     *
+     * @param views
+     * @return counts computed so far, by view name
+     */
+    public Map<String, Integer> getSizes(Collection<View> views) {
+        Map<String, Integer> known = new LinkedHashMap<String, Integer>();
+        List<View> missing = new ArrayList<View>();
+
+        for (View view : views) {
+            Integer size = getSize(view);
+            if (size == null) {
+                missing.add(view);
+            } else {
+                known.put(view.getViewName(), size);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            compute(Jenkins.getAuthentication2(), missing);
+        }
+
+        return known;
+    }
+
+    private void compute(final Authentication auth, final List<View> views) {
+        final String name = auth.getName();
+        if (!computing.add(name)) {
+            return;
+        }
+
+        final long started = generation.get();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    ConcurrentMap<String, Integer> counts = new ConcurrentHashMap<String, Integer>();
+                    try (ACLContext ctx = ACL.as2(auth)) {
+                        for (View view : views) {
+                            counts.put(view.getViewName(), view.getItems().size());
+                        }
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Failed to count view items", e);
+                    } finally {
+                        computing.remove(name);
+                    }
+
+                    synchronized (sizes) {
+                        if (allInvalidated > started) {
+                            return;
+                        }
+                        for (Map.Entry<String, Long> dropped : viewInvalidated.entrySet()) {
+                            if (dropped.getValue() > started) {
+                                counts.remove(dropped.getKey());
+                            }
+                        }
+                        ConcurrentMap<String, Integer> user = sizes.get(name);
+                        if (user == null) {
+                            sizes.put(name, counts);
+                        } else {
+                            user.putAll(counts);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // try again on a later request
+            computing.remove(name);
+        }
+    }
+
+    /**
+     * Forget all counts
+     */
+    final void invalidate() {
+        synchronized (sizes) {
+            allInvalidated = generation.incrementAndGet();
+            viewInvalidated.clear();
+            sizes.clear();
+        }
+    }
+
+    /**
+     * Forget the counts of one view
+     *
+     * @param viewName
+     */
+    final void invalidate(String viewName) {
+        synchronized (sizes) {
+            viewInvalidated.put(viewName, generation.incrementAndGet());
+            for (Map<String, Integer> user : sizes.values()) {
+                user.remove(viewName);
+            }
+        }
+    }
+
+    /**
+     * Forget the counts of views an item event may change
+     */
+    final void itemChanged() {
+        for (View view : Hudson.getInstance().getViews()) {
+            if (followsItems(view)) {
+                invalidate(view.getViewName());
+            }
+        }
+    }
+
+    /**
+     * May an item being created, changed, moved or deleted change the view's
+     * count without the view being saved? Only a list view of named jobs
+     * cannot.
+     */
+    private static boolean followsItems(View view) {
+        if (!(view instanceof ListView)) {
+            return true;
+        }
+        ListView list = (ListView) view;
+        return list.getIncludeRegex() != null || list.isRecurse() || list.getStatusFilter() != null
+                || !list.getJobFilters().isEmpty();
+    }
+
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onCreated(Item item) {
+            get().itemChanged();
+        }
+
+        @Override
+        public void onCopied(Item src, Item item) {
+            get().itemChanged();
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            get().itemChanged();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            get().itemChanged();
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            get().itemChanged();
+        }
+    }
+
+    /**
+     * Top level views are saved with the Jenkins configuration
+     */
+    @Extension
+    public static class SaveableListenerImpl extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Jenkins) {
+                get().invalidate();
+            } else if (o instanceof View) {
+                get().invalidate(((View) o).getViewName());
+            }
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.Hudson;
+import hudson.model.Queue;
+import hudson.model.Result;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Releases the builds of a bulk operation into the queue in waves.
+ *
+ * A wave is released once the previous wave has left the queue, or, if a
+ * queue threshold is set, as soon as the queue holds fewer items than the
+ * threshold. An optional canary wave goes first; the rest are released only
+ * once every canary build has finished, and are dropped if more than the
+ * allowed percentage of canaries failed.
+ *
+ * Builds folded into an item already waiting in the queue are treated as
+ * having left it at once, and do not count as canaries, as none of this
+ * operation's queue or build events will report them.
+ *
+ * All state changes happen under the queue lock, which queue events already
+ * hold, so the waves and queue never lock in different orders.
+ *
+ * @author simon
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class WaveScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(WaveScheduler.class.getName());
+
+    private final BulkOperation operation;
+
+    private final int waveSize;
+
+    private final int queueThreshold;
+
+    private final int canarySize;
+
+    private final double maxFailurePercent;
+
+    private final LinkedList<ScheduleRequest> remaining = new LinkedList<ScheduleRequest>();
+
+    private volatile int waves;
+
+    /**
+     * Builds of released waves still in the queue
+     */
+    private volatile int inQueue;
+
+    private volatile boolean canaryRunning;
+
+    private volatile int canaryCount;
+
+    private volatile int canaryOutstanding;
+
+    private volatile int canaryFailed;
+
+    private volatile boolean aborted;
+
+    /**
+     * Have the remaining builds been counted as held?
+     */
+    private boolean started;
+
+    /**
+     * @param operation
+     * @param waveSize builds per wave
+     * @param queueThreshold release the next wave when the queue is smaller
+     * than this, or 0 to wait for the previous wave to leave the queue
+     * @param canarySize builds in the canary wave, or 0 for none
+     * @param maxFailurePercent canary failures above which the rest are dropped
+     */
+    WaveScheduler(BulkOperation operation, int waveSize, int queueThreshold, int canarySize, double maxFailurePercent) {
+        this.operation = operation;
+        this.waveSize = Math.max(1, waveSize);
+        this.queueThreshold = Math.max(0, queueThreshold);
+        this.canarySize = Math.max(0, canarySize);
+        this.maxFailurePercent = maxFailurePercent;
+    }
+
+    @Exported
+    public int getWaveSize() {
+        return waveSize;
+    }
+
+    @Exported
+    public int getQueueThreshold() {
+        return queueThreshold;
+    }
+
+    @Exported
+    public int getCanarySize() {
+        return canarySize;
+    }
+
+    @Exported
+    public double getMaxFailurePercent() {
+        return maxFailurePercent;
+    }
+
+    /**
+     * Number of waves released so far, including any canary wave
+     *
+     * @return
+     */
+    @Exported
+    public int getWaves() {
+        return waves;
+    }
+
+    /**
+     * Number of builds not yet released
+     *
+     * @return
+     */
+    @Exported
+    public int getRemaining() {
+        synchronized (remaining) {
+            return remaining.size();
+        }
+    }
+
+    /**
+     * Number of canary builds which failed
+     *
+     * @return
+     */
+    @Exported
+    public int getCanaryFailed() {
+        return canaryFailed;
+    }
+
+    /**
+     * Number of canary builds still queued or running
+     *
+     * @return
+     */
+    @Exported
+    public int getCanaryOutstanding() {
+        return canaryOutstanding;
+    }
+
+    /**
+     * Were the remaining waves dropped after the canary failed?
+     *
+     * @return
+     */
+    @Exported
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    final BulkOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Add a build to the waves, before {@link #start()}
+     *
+     * @param request
+     */
+    void add(ScheduleRequest request) {
+        synchronized (remaining) {
+            remaining.add(request);
+        }
+    }
+
+    /**
+     * Hold everything added and release the first wave
+     */
+    void start() {
+        Queue.withLock(new Runnable() {
+            public void run() {
+                if (aborted) {
+                    // cancelled before the first wave
+                    operation.cancelled(drop());
+                    return;
+                }
+                started = true;
+                operation.held(getRemaining());
+                Waves.get().register(WaveScheduler.this);
+
+                if (canarySize > 0) {
+                    int created = release(canarySize);
+                    canaryCount = created;
+                    canaryOutstanding = created;
+                    canaryRunning = created > 0;
+                }
+                releaseIfReady();
+            }
+        });
+    }
+
+    /**
+     * A build of this operation left the queue, called with the queue lock held
+     *
+     * @param cancelled
+     */
+    final void left(boolean cancelled) {
+        inQueue = Math.max(0, inQueue - 1);
+        if (canaryRunning && cancelled) {
+            canaryFinished(false);
+        }
+        releaseIfReady();
+    }
+
+    /**
+     * A build of this operation completed
+     *
+     * @param result
+     */
+    final void completed(final Result result) {
+        if (!canaryRunning) {
+            return;
+        }
+        Queue.withLock(new Runnable() {
+            public void run() {
+                if (canaryRunning) {
+                    canaryFinished(result != null && result.isWorseOrEqualTo(Result.FAILURE));
+                    releaseIfReady();
+                }
+            }
+        });
+    }
+
+    private void canaryFinished(boolean failed) {
+        if (failed) {
+            canaryFailed++;
+        }
+        if (--canaryOutstanding > 0) {
+            return;
+        }
+
+        canaryRunning = false;
+        double failurePercent = canaryCount == 0 ? 0 : canaryFailed * 100.0 / canaryCount;
+        if (failurePercent > maxFailurePercent) {
+            abort(String.format("Canary wave failure rate %.0f%% above %.0f%%", failurePercent, maxFailurePercent));
+        }
+    }
+
+    /**
+     * Release waves while there is room for them, called with the queue
+     * lock held
+     */
+    final void releaseIfReady() {
+        while (!aborted && !canaryRunning && getRemaining() > 0
+                && (inQueue == 0 || queueThreshold > 0 && QueueCounter.get().getSize() < queueThreshold)) {
+            release(waveSize);
+        }
+
+        if (aborted || getRemaining() == 0 && !canaryRunning) {
+            Waves.get().unregister(this);
+        }
+    }
+
+    private int release(int size) {
+        List<ScheduleRequest> wave = new ArrayList<ScheduleRequest>(size);
+        synchronized (remaining) {
+            while (wave.size() < size && !remaining.isEmpty()) {
+                wave.add(remaining.poll());
+            }
+        }
+        if (wave.isEmpty()) {
+            return 0;
+        }
+
+        waves++;
+        int created = BatchScheduler.insert(wave, operation, true);
+        inQueue += created;
+        operation.released(wave.size());
+
+        LOGGER.log(Level.FINE, "Released wave {0} of {1} builds for operation {2}",
+                new Object[]{waves, wave.size(), operation.getId()});
+        return created;
+    }
+
+    /**
+     * Drop the waves not yet released
+     *
+     * @return number of builds dropped
+     */
+    final int cancel() {
+        final int[] dropped = new int[1];
+        Queue.withLock(new Runnable() {
+            public void run() {
+                aborted = true;
+                canaryRunning = false;
+                dropped[0] = drop();
+                if (started) {
+                    operation.released(dropped[0]);
+                }
+                Waves.get().unregister(WaveScheduler.this);
+            }
+        });
+        return dropped[0];
+    }
+
+    private int drop() {
+        synchronized (remaining) {
+            int dropped = remaining.size();
+            remaining.clear();
+            return dropped;
+        }
+    }
+
+    private void abort(String reason) {
+        LOGGER.log(Level.WARNING, "Bulk operation {0} stopped: {1}", new Object[]{operation.getId(), reason});
+        aborted = true;
+
+        int dropped = drop();
+        for (int i = 0; i < dropped; i++) {
+            operation.skipped();
+        }
+        operation.aborted(reason);
+        operation.released(dropped);
+    }
+}
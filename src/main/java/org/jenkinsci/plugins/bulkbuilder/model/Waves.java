@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.QueueListener;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bulk operations with waves still to release, fed with the queue and build
+ * events which release them.
+ *
+ * @author simon
+ */
+@Extension
+public class Waves {
+
+    private final ConcurrentMap<String, WaveScheduler> active = new ConcurrentHashMap<String, WaveScheduler>();
+
+    public static Waves get() {
+        return Hudson.getInstance().getExtensionList(Waves.class).get(0);
+    }
+
+    /**
+     * Number of operations with waves still to release
+     *
+     * @return
+     */
+    public int size() {
+        return active.size();
+    }
+
+    final void register(WaveScheduler waves) {
+        active.put(waves.getOperation().getId(), waves);
+    }
+
+    final void unregister(WaveScheduler waves) {
+        active.remove(waves.getOperation().getId(), waves);
+    }
+
+    @Extension
+    public static class QueueListenerImpl extends QueueListener {
+
+        /**
+         * Any item leaving may bring the queue under an operation's threshold
+         */
+        @Override
+        public void onLeft(Queue.LeftItem li) {
+            Waves waves = get();
+            if (waves.active.isEmpty()) {
+                return;
+            }
+
+            final String id = BulkOperationAction.of(li);
+            final boolean cancelled = li.isCancelled();
+            for (final WaveScheduler scheduler : waves.active.values()) {
+                Queue.withLock(new Runnable() {
+                    public void run() {
+                        if (scheduler.getOperation().getId().equals(id)) {
+                            scheduler.left(cancelled);
+                        } else {
+                            scheduler.releaseIfReady();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, TaskListener listener) {
+            BulkOperationAction action = run.getAction(BulkOperationAction.class);
+            if (action != null) {
+                WaveScheduler scheduler = get().active.get(action.getOperationId());
+                if (scheduler != null) {
+                    scheduler.completed(run.getResult());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Fills in the item counts of the view drop down once they are computed.
+ */
+(function () {
+    function update() {
+        var select = document.getElementById("view");
+        if (select == null) {
+            return;
+        }
+
+        fetch(select.getAttribute("data-sizes-url"), {credentials: "same-origin"})
+            .then(function (rsp) {
+                return rsp.ok ? rsp.json() : null;
+            })
+            .then(function (json) {
+                if (json == null) {
+                    return;
+                }
+                for (var i = 0; i < select.options.length; i++) {
+                    var option = select.options[i];
+                    var name = option.getAttribute("data-view-name");
+                    if (json.sizes.hasOwnProperty(name)) {
+                        option.text = name + " (" + json.sizes[name] + ")";
+                    }
+                }
+                if (json.pending) {
+                    setTimeout(update, 1000);
+                }
+            });
+    }
+
+    if (document.readyState === "loading") {
+        document.addEventListener("DOMContentLoaded", update);
+    } else {
+        update();
+    }
+})();
@@ -24,20 +24,35 @@
 
 package org.jenkinsci.plugins.bulkbuilder;
 
+import org.htmlunit.HttpMethod;
 import org.htmlunit.Page;
+import org.htmlunit.WebRequest;
 import org.htmlunit.html.HtmlButton;
 import org.htmlunit.html.HtmlForm;
 import org.htmlunit.html.HtmlPage;
 import org.htmlunit.html.HtmlRadioButtonInput;
 import hudson.model.Cause;
 import hudson.model.FreeStyleProject;
+import hudson.model.ListView;
+import hudson.model.User;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
 import java.io.IOException;
+import java.net.URL;
 import java.util.List;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.bulkbuilder.model.BuildAction;
+import org.jenkinsci.plugins.bulkbuilder.model.BuildType;
+import org.jenkinsci.plugins.bulkbuilder.model.Builder;
+import org.jenkinsci.plugins.bulkbuilder.model.BulkOperation;
+import org.jenkinsci.plugins.bulkbuilder.model.BulkOperationManager;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.jvnet.hudson.test.For;
 import org.jvnet.hudson.test.HudsonTestCase;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
 
 /**
  * @author simon
@@ -113,6 +128,63 @@ public class BulkBuilderActionTest extends HudsonTestCase
         assertEquals(2, action.getQueueSize());
     }
 
+    @Test
+    public void testPreviewPages() throws Exception {
+        createFreeStyleProject("project1");
+        createFreeStyleProject("project2");
+        createFreeStyleProject("project3");
+
+        WebClient wc = new WebClient();
+        String[] lines = wc.goTo("bulkbuilder/preview?build=all&limit=2", "application/x-ndjson")
+                .getWebResponse().getContentAsString().trim().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("project1", JSONObject.fromObject(lines[0]).getString("name"));
+        assertEquals("project2", JSONObject.fromObject(lines[1]).getString("name"));
+        String cursor = JSONObject.fromObject(lines[2]).getString("cursor");
+        assertEquals("project2", cursor);
+
+        // a job added before the cursor does not shift the next page
+        createFreeStyleProject("project0");
+
+        lines = wc.goTo("bulkbuilder/preview?build=all&limit=2&cursor=" + cursor, "application/x-ndjson")
+                .getWebResponse().getContentAsString().trim().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("project3", JSONObject.fromObject(lines[0]).getString("name"));
+        assertTrue(JSONObject.fromObject(lines[1]).getJSONObject("cursor").isNullObject());
+
+        // nothing was scheduled
+        assertEquals(0, action.getQueueSize());
+    }
+
+    @Test
+    public void testViewSizes() throws Exception {
+        FreeStyleProject project1 = createFreeStyleProject("project1");
+        createFreeStyleProject("project2");
+        ListView named = new ListView("named", jenkins);
+        jenkins.addView(named);
+        named.add(project1);
+
+        WebClient wc = new WebClient();
+        JSONObject json;
+        long deadline = System.currentTimeMillis() + 10000;
+        do {
+            json = JSONObject.fromObject(wc.goTo("bulkbuilder/viewSizes", "application/json")
+                    .getWebResponse().getContentAsString());
+        } while (json.getBoolean("pending") && System.currentTimeMillis() < deadline);
+
+        assertFalse(json.getBoolean("pending"));
+        assertEquals(2, json.getJSONObject("sizes").getInt("all"));
+        assertEquals(1, json.getJSONObject("sizes").getInt("named"));
+
+        // a new job drops the cached counts of views it may appear in, but
+        // not of a view listing named jobs
+        createFreeStyleProject("project3");
+        json = JSONObject.fromObject(wc.goTo("bulkbuilder/viewSizes", "application/json")
+                .getWebResponse().getContentAsString());
+        assertFalse(json.getJSONObject("sizes").has("all") && json.getJSONObject("sizes").getInt("all") == 2);
+        assertEquals(1, json.getJSONObject("sizes").getInt("named"));
+    }
+
     @Test
     public void testGetQueueSizeZeroWhenEmpty() {
         assertEquals(0, action.getQueueSize());
@@ -133,4 +205,63 @@ public class BulkBuilderActionTest extends HudsonTestCase
         project2.scheduleBuild(new Cause.UserCause());
         assertEquals(2, action.getQueueSize());
     }
+
+    /**
+     * Only the owner of an operation and administrators may see or cancel it
+     */
+    @Test
+    public void testCancelRequiresOwner() throws Exception {
+        jenkins.setCrumbIssuer(null);
+        jenkins.setSecurityRealm(createDummySecurityRealm());
+        jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.READ).everywhere().toEveryone()
+                .grant(Jenkins.ADMINISTER).everywhere().to("admin"));
+
+        Builder builder = new Builder(BuildAction.IMMEDIATE_BUILD);
+        builder.setPattern("nothing");
+        BulkOperation operation;
+        try (ACLContext ctx = ACL.as2(User.getById("alice", true).impersonate2())) {
+            operation = BulkOperationManager.get().submit(builder, BuildType.ALL);
+            assertEquals("alice", operation.getOwner());
+            assertTrue(action.getOperations().contains(operation));
+        }
+        try (ACLContext ctx = ACL.as2(User.getById("bob", true).impersonate2())) {
+            assertFalse(action.getOperations().contains(operation));
+            assertNull(action.getOperation(operation.getId()));
+        }
+        try (ACLContext ctx = ACL.as2(User.getById("admin", true).impersonate2())) {
+            assertTrue(action.getOperations().contains(operation));
+        }
+
+        WebClient wc = new WebClient().login("bob");
+        wc.setThrowExceptionOnFailingStatusCode(false);
+        Page page = wc.getPage(new WebRequest(
+                new URL(getURL(), "bulkbuilder/cancel?id=" + operation.getId()), HttpMethod.POST));
+        assertEquals(403, page.getWebResponse().getStatusCode());
+        assertFalse(operation.isCancelled());
+    }
+
+    /**
+     * A selector left behind in an unchecked block must not narrow the build
+     */
+    @Test
+    public void testSelectorIgnoredUnlessBlockChecked() throws Exception {
+        jenkins.setCrumbIssuer(null);
+        FreeStyleProject project1 = createFreeStyleProject("project1");
+        FreeStyleProject project2 = createFreeStyleProject("project2");
+
+        WebClient wc = new WebClient();
+        wc.setThrowExceptionOnFailingStatusCode(false);
+        wc.getPage(new WebRequest(new URL(getURL(),
+                "bulkbuilder/build?action=IMMEDIATE_BUILD&build=ALL&selector=name~project1"), HttpMethod.POST));
+
+        BulkOperation operation = BulkOperationManager.get().getOperations().get(0);
+        while (operation.isActive()) {
+            Thread.sleep(100);
+        }
+        waitUntilNoActivity();
+
+        assertNotNull(project1.getLastBuild());
+        assertNotNull(project2.getLastBuild());
+    }
 }
@@ -24,6 +24,7 @@
 
 package org.jenkinsci.plugins.bulkbuilder.model;
 
+import java.util.List;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
 import org.junit.Before;
@@ -72,8 +73,9 @@ public class BuildHistoryTest {
     @Test
     public void testHistoryListDoesNotExceedMaxSize() {
 
+        int i = 0;
         while (history.size() < BuildHistory.SIZE) {
-            history.add(new BuildHistoryItem("test"));
+            history.add(new BuildHistoryItem("test " + i++));
         }
 
         assertEquals(BuildHistory.SIZE, history.size());
@@ -81,4 +83,45 @@ public class BuildHistoryTest {
         history.add(new BuildHistoryItem("one more"));
         assertEquals(BuildHistory.SIZE, history.size());
     }
+
+    /**
+     * Test a repeated pattern moves to the front rather than being duplicated
+     */
+    @Test
+    public void testRepeatedPatternMovesToFront() {
+        history.add(new BuildHistoryItem("second"));
+        history.add(new BuildHistoryItem(pattern));
+
+        List<BuildHistoryItem> all = history.getAll();
+        assertEquals(2, all.size());
+        assertEquals(pattern, all.get(0).getPattern());
+        assertEquals(2, all.get(0).getUseCount());
+        assertEquals("second", all.get(1).getPattern());
+    }
+
+    /**
+     * Test match counts are recorded against the pattern
+     */
+    @Test
+    public void testRecordMatches() {
+        assertEquals(-1, history.getAll().get(0).getLastMatchCount());
+
+        history.recordMatches(pattern, 42);
+        history.recordMatches("unknown", 7);
+
+        assertEquals(1, history.size());
+        assertEquals(42, history.getAll().get(0).getLastMatchCount());
+    }
+
+    /**
+     * Test snapshots are not affected by later changes
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsImmutable() {
+        List<BuildHistoryItem> snapshot = history.getAll();
+        history.add(new BuildHistoryItem("second"));
+
+        assertEquals(1, snapshot.size());
+        snapshot.clear();
+    }
 }
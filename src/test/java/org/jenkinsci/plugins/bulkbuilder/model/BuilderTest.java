@@ -26,14 +26,32 @@ package org.jenkinsci.plugins.bulkbuilder.model;
 
 import hudson.model.BooleanParameterDefinition;
 import hudson.model.FreeStyleProject;
+import hudson.model.Job;
+import hudson.model.ParametersAction;
 import hudson.model.ParametersDefinitionProperty;
+import hudson.model.Result;
 import hudson.model.StringParameterDefinition;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.tasks.BuildTrigger;
+import hudson.triggers.SCMTrigger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.junit.After;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.jvnet.hudson.test.FailureBuilder;
 import org.jvnet.hudson.test.HudsonTestCase;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+import org.jvnet.hudson.test.MockFolder;
+import org.jvnet.hudson.test.SingleFileSCM;
 import org.jvnet.hudson.test.UnstableBuilder;
 import org.jvnet.hudson.test.recipes.PresetData;
 import org.jvnet.hudson.test.recipes.PresetData.DataSet;
@@ -133,6 +151,23 @@ public class BuilderTest extends HudsonTestCase {
         assertNull(project5.getLastBuild());
     }
 
+    /**
+     * Test the operation counts evaluated, matched and scheduled jobs.
+     */
+    @Test
+    public void testOperationCounters() throws Exception {
+        setUpBasicJobs();
+        assertEquals(2, builder.buildFailed());
+        waitUntilNoActivity();
+
+        BulkOperation operation = builder.getOperation();
+        assertEquals(4, operation.getEvaluated());
+        assertEquals(2, operation.getMatched());
+        assertEquals(2, operation.getScheduled());
+        assertEquals(0, operation.getSkipped());
+        assertEquals(0, operation.getSkippedForPermission());
+    }
+
     /**
      * Test of buildUnstableOnly method.
      */
@@ -166,6 +201,475 @@ public class BuilderTest extends HudsonTestCase {
         assertNull(project5.getLastBuild());
     }
 
+    /**
+     * Test jobs inside folders are built.
+     */
+    @Test
+    public void testBuildJobsInFolders() throws Exception {
+        MockFolder folder = jenkins.createProject(MockFolder.class, "folder");
+        FreeStyleProject nested = folder.createProject(FreeStyleProject.class, "nested");
+        MockFolder subFolder = folder.createProject(MockFolder.class, "sub");
+        FreeStyleProject deeplyNested = subFolder.createProject(FreeStyleProject.class, "deeply nested");
+
+        builder = new Builder(BuildAction.valueOf("IMMEDIATE_BUILD"));
+        builder.setPattern("folder/*");
+        assertEquals(2, builder.buildAll());
+        waitUntilNoActivity();
+
+        assertNotNull(nested.getLastBuild());
+        assertNotNull(deeplyNested.getLastBuild());
+    }
+
+    /**
+     * Test a selection walks folders in full name order and resumes after a
+     * name.
+     */
+    @Test
+    public void testSelectInFullNameOrder() throws Exception {
+        MockFolder folder = jenkins.createProject(MockFolder.class, "a");
+        folder.createProject(FreeStyleProject.class, "x");
+        folder.createProject(MockFolder.class, "sub").createProject(FreeStyleProject.class, "y");
+        createFreeStyleProject("a-b");
+        createFreeStyleProject("a0");
+        createFreeStyleProject("A");
+
+        builder = new Builder(BuildAction.valueOf("IMMEDIATE_BUILD"));
+        assertEquals(Arrays.asList("A", "a-b", "a/sub/y", "a/x", "a0"), names(builder.select(BuildType.ALL)));
+        assertEquals(Arrays.asList("a/x", "a0"), names(builder.select(BuildType.ALL, "a/sub/y")));
+        assertEquals(Arrays.asList("a/sub/y", "a/x", "a0"), names(builder.select(BuildType.ALL, "a/sub")));
+    }
+
+    private static List<String> names(Iterable<Job<?, ?>> jobs) {
+        List<String> names = new ArrayList<String>();
+        for (Job<?, ?> job : jobs) {
+            names.add(job.getFullName());
+        }
+        return names;
+    }
+
+    /**
+     * Test filters evaluated on the fork-join pool select the same jobs.
+     */
+    @Test
+    public void testBuildFailedParallel() throws Exception {
+        setUpBasicJobs();
+        builder.setParallel(true);
+        assertEquals(2, builder.buildFailed());
+        waitUntilNoActivity();
+
+        assertEquals(project1NextBuildNumber, project1.getNextBuildNumber());
+        assertEquals(project2NextBuildNumber, project2.getLastBuild().getNumber());
+        assertEquals(project3NextBuildNumber, project3.getNextBuildNumber());
+        assertEquals(project4NextBuildNumber, project4.getLastBuild().getNumber());
+        assertNull(project5.getLastBuild());
+    }
+
+    /**
+     * Test builds are inserted into the queue in batches.
+     */
+    @Test
+    public void testBuildAllBatched() throws Exception {
+        setUpBasicJobs();
+        builder.setBatchSize(3);
+        assertEquals(4, builder.buildAll());
+        waitUntilNoActivity();
+
+        List<BatchStats> batches = builder.getOperation().getBatches();
+        assertEquals(2, batches.size());
+        assertEquals(3, batches.get(0).getSize());
+        assertEquals(1, batches.get(1).getSize());
+        assertEquals(project4NextBuildNumber, project4.getLastBuild().getNumber());
+        assertNull(project5.getLastBuild());
+    }
+
+    /**
+     * Test a selector narrows the build type's selection.
+     */
+    @Test
+    public void testBuildAllWithSelector() throws Exception {
+        setUpBasicJobs();
+        builder.setSelector(Selector.parse("status>=UNSTABLE and not name=fail"));
+        assertEquals(2, builder.buildAll());
+        waitUntilNoActivity();
+
+        assertEquals(project1NextBuildNumber - 1, project1.getLastBuild().getNumber());
+        assertEquals(project2NextBuildNumber - 1, project2.getLastBuild().getNumber());
+        assertEquals(project3NextBuildNumber, project3.getLastBuild().getNumber());
+        assertEquals(project4NextBuildNumber, project4.getLastBuild().getNumber());
+        assertNull(project5.getLastBuild());
+    }
+
+    /**
+     * Test time range selection, served from the timestamp index.
+     */
+    @Test
+    public void testBuildAllBuiltRecently() throws Exception {
+        setUpBasicJobs();
+        builder.setSelector(Selector.parse("lastBuild<1h and status>=FAILURE"));
+        assertEquals(1, builder.buildAll());
+        waitUntilNoActivity();
+
+        assertEquals(project1NextBuildNumber - 1, project1.getLastBuild().getNumber());
+        assertEquals(project2NextBuildNumber, project2.getLastBuild().getNumber());
+        assertEquals(project3NextBuildNumber - 1, project3.getLastBuild().getNumber());
+        assertNull(project4.getLastBuild());
+    }
+
+    /**
+     * Test builds are released in waves until all have run.
+     */
+    @Test
+    public void testBuildAllInWaves() throws Exception {
+        setUpBasicJobs();
+        builder.setWaves(2, 0);
+        assertEquals(4, builder.build(BuildType.ALL));
+
+        BulkOperation operation = builder.getOperation();
+        for (int i = 0; i < 100 && operation.isActive(); i++) {
+            Thread.sleep(100);
+        }
+        waitUntilNoActivity();
+
+        assertEquals(BulkOperation.Status.COMPLETED, operation.getStatus());
+        assertEquals(2, operation.getWaves().getWaves());
+        assertEquals(4, operation.getScheduled());
+        assertEquals(project4NextBuildNumber, project4.getLastBuild().getNumber());
+    }
+
+    /**
+     * Test waves are not held up by a build folded into an item already in
+     * the queue, even when it is the canary.
+     */
+    @Test
+    public void testBuildAllInWavesWithQueuedJob() throws Exception {
+        setUpBasicJobs();
+        jenkins.getQueue().schedule2(project2, 1000);
+        builder.setWaves(1, 0);
+        builder.setCanary(1, 100);
+        assertEquals(4, builder.build(BuildType.ALL));
+
+        BulkOperation operation = builder.getOperation();
+        for (int i = 0; i < 100 && operation.isActive(); i++) {
+            Thread.sleep(100);
+        }
+        // the folded item may have been moved up and built already
+        jenkins.getQueue().cancel(project2);
+        waitUntilNoActivity();
+
+        // items are sorted by name, so the queued "fail" is the canary
+        assertEquals(BulkOperation.Status.COMPLETED, operation.getStatus());
+        assertEquals(4, operation.getWaves().getWaves());
+        assertEquals(0, operation.getWaves().getCanaryOutstanding());
+        assertEquals(project1NextBuildNumber, project1.getLastBuild().getNumber());
+        assertEquals(project4NextBuildNumber, project4.getLastBuild().getNumber());
+    }
+
+    /**
+     * Test a failing canary wave stops the remaining waves.
+     */
+    @Test
+    public void testBuildAllCanaryFails() throws Exception {
+        setUpBasicJobs();
+        builder.setWaves(1, 0);
+        builder.setCanary(1, 0);
+        assertEquals(4, builder.build(BuildType.ALL));
+
+        BulkOperation operation = builder.getOperation();
+        for (int i = 0; i < 100 && operation.isActive(); i++) {
+            Thread.sleep(100);
+        }
+        waitUntilNoActivity();
+
+        // items are sorted by name, so "fail" is the canary
+        WaveScheduler waves = operation.getWaves();
+        assertEquals(1, waves.getCanaryFailed());
+        assertTrue(waves.isAborted());
+        assertEquals(BulkOperation.Status.FAILED, operation.getStatus());
+        assertEquals(project2NextBuildNumber, project2.getLastBuild().getNumber());
+        assertEquals(project1NextBuildNumber - 1, project1.getLastBuild().getNumber());
+        assertNull(project4.getLastBuild());
+    }
+
+    /**
+     * Test cancelling removes queued and held builds of the operation.
+     */
+    @Test
+    public void testCancel() throws Exception {
+        setUpBasicJobs();
+        jenkins.setQuietPeriod(60);
+        builder.setWaves(2, 0);
+        assertEquals(4, builder.build(BuildType.ALL));
+
+        BulkOperation operation = builder.getOperation();
+        assertEquals(BulkOperation.Status.RUNNING, operation.getStatus());
+        assertEquals(2, QueueItemIndex.get().size(operation.getId()));
+        assertEquals(2, operation.getHeld());
+
+        assertEquals(4, operation.cancel());
+        assertEquals(BulkOperation.Status.CANCELLED, operation.getStatus());
+        assertEquals(4, operation.getCancelledBuilds());
+        assertEquals(0, QueueItemIndex.get().size(operation.getId()));
+        assertEquals(0, operation.getHeld());
+        assertEquals(0, jenkins.getQueue().getItems().length);
+        assertNull(project4.getLastBuild());
+    }
+
+    /**
+     * Test polling outcomes are collected for the operation.
+     */
+    @Test
+    public void testPollAllSummary() throws Exception {
+        setUpBasicJobs();
+        builder = new Builder(BuildAction.POLL_SCM);
+        assertEquals(4, builder.build(BuildType.ALL));
+
+        BulkOperation operation = builder.getOperation();
+        for (int i = 0; i < 100 && operation.isActive(); i++) {
+            Thread.sleep(100);
+        }
+
+        // none of the jobs has an SCM
+        assertEquals(4, operation.getPolling().getCount(PollingSummary.Outcome.NOT_POLLED));
+        assertEquals(0, operation.getPolling().getCount(PollingSummary.Outcome.CHANGES));
+        assertEquals(BulkOperation.Status.COMPLETED, operation.getStatus());
+    }
+
+    /**
+     * Test polls of a cancelled operation are not run.
+     */
+    @Test
+    public void testPollCancelled() throws Exception {
+        FreeStyleProject project = createFreeStyleProject("polled");
+        project.setScm(new SingleFileSCM("file", "content"));
+
+        BulkOperation operation = new BulkOperation(BuildAction.POLL_SCM);
+        operation.cancel();
+        PollingEngine.get().poll(project, operation);
+
+        PollingSummary summary = operation.getPolling();
+        for (int i = 0; i < 100 && summary.getCount(PollingSummary.Outcome.NOT_POLLED) == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, summary.getCount(PollingSummary.Outcome.NOT_POLLED));
+        assertEquals(0, summary.getCount(PollingSummary.Outcome.NO_CHANGES));
+        assertEquals(0, summary.getCount(PollingSummary.Outcome.CHANGES));
+    }
+
+    /**
+     * Test only jobs with an SCM trigger are polled, logging to the
+     * trigger's polling log.
+     */
+    @Test
+    public void testPollOnlyTriggeredJobs() throws Exception {
+        FreeStyleProject untriggered = createFreeStyleProject("untriggered");
+        untriggered.setScm(new SingleFileSCM("file", "content"));
+        FreeStyleProject triggered = createFreeStyleProject("triggered");
+        triggered.setScm(new SingleFileSCM("file", "content"));
+        SCMTrigger trigger = new SCMTrigger("");
+        triggered.addTrigger(trigger);
+
+        builder = new Builder(BuildAction.POLL_SCM);
+        assertEquals(2, builder.build(BuildType.ALL));
+
+        BulkOperation operation = builder.getOperation();
+        for (int i = 0; i < 100 && operation.isActive(); i++) {
+            Thread.sleep(100);
+        }
+        waitUntilNoActivity();
+
+        PollingSummary summary = operation.getPolling();
+        assertEquals(1, summary.getCount(PollingSummary.Outcome.NOT_POLLED));
+        assertEquals(1, summary.getCount(PollingSummary.Outcome.CHANGES));
+        assertNull(untriggered.getLastBuild());
+        assertNotNull(triggered.getLastBuild());
+        assertTrue(trigger.getLogFile().exists());
+    }
+
+    /**
+     * Test downstream jobs of selected jobs are left out.
+     */
+    @Test
+    public void testBuildAllPruneDownstream() throws Exception {
+        FreeStyleProject upstream = createFreeStyleProject("upstream");
+        FreeStyleProject middle = createFreeStyleProject("middle");
+        FreeStyleProject downstream = createFreeStyleProject("downstream");
+        FreeStyleProject other = createFreeStyleProject("other");
+        upstream.getPublishersList().add(new BuildTrigger("middle", Result.SUCCESS));
+        middle.getPublishersList().add(new BuildTrigger("downstream", Result.SUCCESS));
+        jenkins.rebuildDependencyGraph();
+
+        builder = new Builder(BuildAction.IMMEDIATE_BUILD);
+        builder.setPruneDownstream(true);
+        builder.setPattern("upstream,downstream,other");
+        assertEquals(2, builder.buildAll());
+
+        BulkOperation operation = builder.getOperation();
+        assertEquals(1, operation.getPruned());
+        assertEquals(3, operation.getMatched());
+        waitUntilNoActivity();
+
+        // downstream still runs once, through middle
+        assertEquals(1, downstream.getBuilds().size());
+        assertEquals(1, other.getBuilds().size());
+    }
+
+    /**
+     * Test downstream jobs are still built when the job covering them is
+     * skipped.
+     */
+    @Test
+    public void testBuildAllPruneDownstreamOfSkippedJob() throws Exception {
+        FreeStyleProject upstream = createFreeStyleProject("upstream");
+        FreeStyleProject downstream = createFreeStyleProject("downstream");
+        upstream.getPublishersList().add(new BuildTrigger("downstream", Result.SUCCESS));
+        jenkins.rebuildDependencyGraph();
+        jenkins.getQueue().schedule2(upstream, 1000);
+
+        builder = new Builder(BuildAction.IMMEDIATE_BUILD);
+        builder.setPruneDownstream(true);
+        builder.setDuplicatePolicy(DuplicatePolicy.SKIP);
+        assertEquals(1, builder.buildAll());
+
+        BulkOperation operation = builder.getOperation();
+        assertEquals(1, operation.getSkippedActive());
+        assertEquals(0, operation.getPruned());
+        assertEquals(2, operation.getMatched());
+        jenkins.getQueue().cancel(upstream);
+        waitUntilNoActivity();
+
+        assertEquals(1, downstream.getBuilds().size());
+    }
+
+    /**
+     * Test downstream jobs are not pruned from a parameterised build.
+     */
+    @Test
+    public void testParameterisedBuildDoesNotPrune() throws Exception {
+        FreeStyleProject upstream = createFreeStyleProject("upstream");
+        createFreeStyleProject("downstream");
+        upstream.getPublishersList().add(new BuildTrigger("downstream", Result.SUCCESS));
+        jenkins.rebuildDependencyGraph();
+
+        builder = new Builder(BuildAction.IMMEDIATE_BUILD);
+        builder.setPruneDownstream(true);
+        builder.setUserParams(Collections.singletonMap("BRANCH", "release"));
+        assertEquals(2, builder.buildAll());
+        assertEquals(0, builder.getOperation().getPruned());
+        waitUntilNoActivity();
+    }
+
+    /**
+     * Test jobs already in the queue are skipped.
+     */
+    @Test
+    public void testBuildAllSkipsActive() throws Exception {
+        setUpBasicJobs();
+        jenkins.getQueue().schedule2(project1, 1000);
+
+        builder.setDuplicatePolicy(DuplicatePolicy.SKIP);
+        assertEquals(3, builder.buildAll());
+
+        BulkOperation operation = builder.getOperation();
+        assertEquals(1, operation.getSkippedActive());
+        assertEquals(1, operation.getSkipped());
+        jenkins.getQueue().clear();
+    }
+
+    /**
+     * Test active tasks are resynced as the system and cleared once builds
+     * finish.
+     */
+    @Test
+    public void testActiveTasksResync() throws Exception {
+        jenkins.setSecurityRealm(createDummySecurityRealm());
+        jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.READ).everywhere().toEveryone());
+
+        FreeStyleProject queued = createFreeStyleProject("queued");
+        jenkins.getQueue().schedule2(queued, 1000);
+
+        WorkflowJob pipeline = jenkins.createProject(WorkflowJob.class, "pipeline");
+        pipeline.setDefinition(new CpsFlowDefinition("sleep 2", true));
+        WorkflowRun run = pipeline.scheduleBuild2(0).waitForStart();
+
+        ActiveTasks active = ActiveTasks.get();
+        try (ACLContext ctx = ACL.as2(Jenkins.ANONYMOUS2)) {
+            active.resync();
+        }
+        assertTrue(active.isActive(queued));
+        assertTrue(active.isActive(pipeline));
+
+        assertBuildStatusSuccess(run);
+        jenkins.getQueue().clear();
+        waitUntilNoActivity();
+        assertFalse(active.isActive(queued));
+        assertFalse(active.isActive(pipeline));
+    }
+
+    /**
+     * Test ordered builds report a makespan estimate.
+     */
+    @Test
+    public void testBuildAllLongestFirst() throws Exception {
+        setUpBasicJobs();
+        builder.setOrder(BuildOrder.LONGEST_FIRST);
+        assertEquals(4, builder.buildAll());
+        waitUntilNoActivity();
+
+        BulkOperation operation = builder.getOperation();
+        assertEquals(BuildOrder.LONGEST_FIRST, operation.getOrder());
+        assertTrue(operation.getEstimatedMakespanMillis() >= 0);
+        assertTrue(operation.getEstimatedMakespanMillis() <= operation.getNaiveMakespanMillis());
+        assertEquals(project4NextBuildNumber, project4.getLastBuild().getNumber());
+    }
+
+    /**
+     * Test held builds are released into the queue.
+     */
+    @Test
+    public void testBuildAllHeld() throws Exception {
+        setUpBasicJobs();
+        builder.setHold(true);
+        assertEquals(4, builder.buildAll());
+
+        BulkOperation operation = builder.getOperation();
+        for (int i = 0; i < 100 && operation.getHeld() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, operation.getHeld());
+        waitUntilNoActivity();
+
+        assertEquals(4, operation.getScheduled());
+        assertEquals(project1NextBuildNumber, project1.getLastBuild().getNumber());
+        assertEquals(project4NextBuildNumber, project4.getLastBuild().getNumber());
+        assertNull(project5.getLastBuild());
+    }
+
+    /**
+     * Test rate limited builds are scheduled in the background, without
+     * holding up the caller.
+     */
+    @Test
+    public void testBuildAllRateLimited() throws Exception {
+        setUpBasicJobs();
+        builder.setRateLimit(5, 1);
+        assertEquals(4, builder.buildAll());
+
+        BulkOperation operation = builder.getOperation();
+        assertTrue(operation.getHeld() > 0);
+        for (int i = 0; i < 100 && operation.getHeld() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, operation.getHeld());
+        waitUntilNoActivity();
+
+        assertEquals(4, operation.getScheduled());
+        assertEquals(4, operation.getRateLimiter().getAcquired());
+        assertEquals(project1NextBuildNumber, project1.getLastBuild().getNumber());
+        assertEquals(project4NextBuildNumber, project4.getLastBuild().getNumber());
+        assertNull(project5.getLastBuild());
+    }
+
     /**
      * Test user has necessary permission to build job.
      */
@@ -210,6 +714,28 @@ public class BuilderTest extends HudsonTestCase {
         assertEquals("baz", buildVariables.get("foo"));
     }
 
+    /**
+     * Test Pipeline jobs are selected and passed user supplied parameters.
+     */
+    @Test
+    public void testParameterisedPipelineBuild() throws Exception {
+        WorkflowJob pipeline = jenkins.createProject(WorkflowJob.class, "pipelineJob");
+        pipeline.setDefinition(new CpsFlowDefinition("echo \"foo is ${params.foo}\"", true));
+        pipeline.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("foo", "bar")));
+
+        BulkParamProcessor processor = new BulkParamProcessor("foo=baz");
+        builder = new Builder(BuildAction.valueOf("IMMEDIATE_BUILD"));
+        builder.setPattern("pipelineJob");
+        builder.setUserParams(processor.getProjectParams());
+        assertEquals(1, builder.buildAll());
+        waitUntilNoActivity();
+
+        WorkflowRun run = pipeline.getLastBuild();
+        assertNotNull(run);
+        assertEquals(Result.SUCCESS, run.getResult());
+        assertEquals("baz", run.getAction(ParametersAction.class).getParameter("foo").getValue());
+    }
+
     /**
      * Test parameterized job uses default value when no parameters specified by user
      */
@@ -24,6 +24,7 @@
 
 package org.jenkinsci.plugins.bulkbuilder.model;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import static org.junit.Assert.assertEquals;
@@ -77,4 +78,44 @@ public class BulkParamsProcessorTest {
 
         assertEquals(expected, projectParams);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGetProjectParamsValueContainingEquals() {
+        BulkParamProcessor params = new BulkParamProcessor("opts=-Dfoo=bar&x=1");
+        Map<String, String> projectParams = params.getProjectParams();
+
+        assertEquals("-Dfoo=bar", projectParams.get("opts"));
+        assertEquals("1", projectParams.get("x"));
+    }
+
+    @Test
+    public void testGetProjectParamsDecoded() {
+        BulkParamProcessor params = new BulkParamProcessor("msg=a%26b%20c&name=caf%C3%A9");
+        Map<String, String> projectParams = params.getProjectParams();
+
+        assertEquals("a&b c", projectParams.get("msg"));
+        assertEquals("caf\u00e9", projectParams.get("name"));
+    }
+
+    @Test
+    public void testGetProjectParamsMultiValue() {
+        BulkParamProcessor params = new BulkParamProcessor("os=linux&os=windows&arch=x64");
+        Map<String, String> projectParams = params.getProjectParams();
+
+        assertEquals("linux,windows", projectParams.get("os"));
+        assertEquals("x64", projectParams.get("arch"));
+    }
+
+    @Test
+    public void testGetMalformed() {
+        BulkParamProcessor params = new BulkParamProcessor("a=1&&=2&b&c=%zz&d=");
+        Map<String, String> projectParams = params.getProjectParams();
+
+        Map<String, String> expected = new HashMap<String, String>(2);
+        expected.put("a", "1");
+        expected.put("d", "");
+
+        assertEquals(expected, projectParams);
+        assertEquals(Arrays.asList("=2", "b", "c=%zz"), params.getMalformed());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * @author simon
+ */
+public class DurationOrderingTest {
+
+    @Test
+    public void testMakespanSingleExecutor() {
+        assertEquals(60, DurationOrdering.makespan(new long[]{10, 20, 30}, 1));
+    }
+
+    @Test
+    public void testMakespanNoJobs() {
+        assertEquals(0, DurationOrdering.makespan(new long[0], 4));
+    }
+
+    @Test
+    public void testLongestFirstShortensMakespan() {
+        // short jobs first leave the long job to run alone at the end
+        assertEquals(14, DurationOrdering.makespan(new long[]{2, 2, 2, 2, 10}, 2));
+        assertEquals(10, DurationOrdering.makespan(new long[]{10, 2, 2, 2, 2}, 2));
+    }
+
+    @Test
+    public void testMakespanWithoutExecutorsAssumesOne() {
+        assertEquals(30, DurationOrdering.makespan(new long[]{10, 20}, 0));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author simon
+ */
+public class JobNameMatcherTest {
+
+    @Test
+    public void testLiteral() {
+        JobNameMatcher matcher = JobNameMatcher.compile("project1");
+        assertTrue(matcher.matches("project1", null));
+        assertFalse(matcher.matches("project10", null));
+    }
+
+    @Test
+    public void testWildcards() {
+        assertTrue(JobNameMatcher.compile("proj*").matches("project1", null));
+        assertTrue(JobNameMatcher.compile("*ect1").matches("project1", null));
+        assertTrue(JobNameMatcher.compile("*oje*").matches("project1", null));
+        assertTrue(JobNameMatcher.compile("p*j*1").matches("project1", null));
+        assertTrue(JobNameMatcher.compile("project?").matches("project1", null));
+        assertFalse(JobNameMatcher.compile("project?").matches("project10", null));
+        assertTrue(JobNameMatcher.compile("*").matches("project1", null));
+    }
+
+    @Test
+    public void testRegexCharactersAreLiteral() {
+        JobNameMatcher matcher = JobNameMatcher.compile("a.b*");
+        assertTrue(matcher.matches("a.b-c", null));
+        assertFalse(matcher.matches("axb-c", null));
+    }
+
+    @Test
+    public void testMultiplePatterns() {
+        JobNameMatcher matcher = JobNameMatcher.compile("svc-*, lib-*");
+        assertTrue(matcher.matches("svc-one", null));
+        assertTrue(matcher.matches("lib-two", null));
+        assertFalse(matcher.matches("app-three", null));
+    }
+
+    @Test
+    public void testExcludes() {
+        JobNameMatcher matcher = JobNameMatcher.compile("svc-*,!*-legacy");
+        assertTrue(matcher.matches("svc-one", null));
+        assertFalse(matcher.matches("svc-one-legacy", null));
+
+        JobNameMatcher excludeOnly = JobNameMatcher.compile("!*-legacy");
+        assertTrue(excludeOnly.matches("app", null));
+        assertFalse(excludeOnly.matches("app-legacy", null));
+    }
+
+    @Test
+    public void testMatchesFullOrDisplayName() {
+        JobNameMatcher matcher = JobNameMatcher.compile("team/*");
+        assertTrue(matcher.matches("team/svc", "svc"));
+
+        matcher = JobNameMatcher.compile("Service*");
+        assertTrue(matcher.matches("team/svc", "Service One"));
+        assertFalse(matcher.matches("team/svc", "svc"));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * @author simon
+ */
+public class LabelSpreadingTest {
+
+    @Test
+    public void testFreeExecutorsFilledFirst() {
+        Map<String, List<String>> groups = new LinkedHashMap<String, List<String>>();
+        groups.put("linux", Arrays.asList("l1", "l2", "l3", "l4"));
+        groups.put("windows", Arrays.asList("w1", "w2"));
+
+        Map<String, Integer> free = new LinkedHashMap<String, Integer>();
+        free.put("linux", 1);
+        free.put("windows", 1);
+
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        weights.put("linux", 2);
+        weights.put("windows", 1);
+
+        assertEquals(Arrays.asList("l1", "w1", "l2", "l3", "w2", "l4"),
+                LabelSpreading.spread(groups, free, weights, 6));
+    }
+
+    @Test
+    public void testScarceLabelDoesNotHoldUpOthers() {
+        Map<String, List<String>> groups = new LinkedHashMap<String, List<String>>();
+        groups.put("scarce", Arrays.asList("s1", "s2", "s3"));
+        groups.put("plenty", Arrays.asList("p1", "p2", "p3"));
+
+        Map<String, Integer> free = new LinkedHashMap<String, Integer>();
+        free.put("scarce", 0);
+        free.put("plenty", 3);
+
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        weights.put("scarce", 1);
+        weights.put("plenty", 3);
+
+        assertEquals(Arrays.asList("p1", "p2", "p3", "s1", "s2", "s3"),
+                LabelSpreading.spread(groups, free, weights, 6));
+    }
+}
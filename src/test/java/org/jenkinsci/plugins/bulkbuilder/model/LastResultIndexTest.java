@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import java.util.Collections;
+import org.junit.Test;
+import org.jvnet.hudson.test.FailureBuilder;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+/**
+ * @author simon
+ */
+public class LastResultIndexTest extends HudsonTestCase {
+
+    @Test
+    public void testNeverBuilt() throws Exception {
+        FreeStyleProject project = createFreeStyleProject("not built");
+        assertNull(LastResultIndex.get().getEntry(project));
+    }
+
+    @Test
+    public void testTracksCompletedBuilds() throws Exception {
+        FreeStyleProject project = createFreeStyleProject("project1");
+        LastResultIndex index = LastResultIndex.get();
+        assertNull(index.getLastResult(project));
+
+        project.getBuildersList().add(new FailureBuilder());
+        project.scheduleBuild2(0).get();
+        waitUntilNoActivity();
+        assertEquals(Result.FAILURE, index.getLastResult(project));
+
+        project.getBuildersList().clear();
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+        waitUntilNoActivity();
+        assertEquals(Result.SUCCESS, index.getLastResult(project));
+        assertEquals(build.getTimeInMillis(), index.getEntry(project).getTimestamp());
+    }
+
+    @Test
+    public void testDeletedBuildIsReloaded() throws Exception {
+        FreeStyleProject project = createFreeStyleProject("project1");
+        project.getBuildersList().add(new FailureBuilder());
+        project.scheduleBuild2(0).get();
+        project.getBuildersList().clear();
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+        waitUntilNoActivity();
+
+        LastResultIndex index = LastResultIndex.get();
+        assertEquals(Result.SUCCESS, index.getLastResult(project));
+
+        build.delete();
+        assertEquals(Result.FAILURE, index.getLastResult(project));
+    }
+
+    @Test
+    public void testStartedBetween() throws Exception {
+        FreeStyleProject built = createFreeStyleProject("built");
+        FreeStyleBuild build = built.scheduleBuild2(0).get();
+        FreeStyleProject notBuilt = createFreeStyleProject("not built");
+        waitUntilNoActivity();
+
+        LastResultIndex index = LastResultIndex.get();
+        long started = build.getTimeInMillis();
+        assertEquals(Collections.singleton("built"), index.getStartedBetween(started, started + 1));
+        assertEquals(Collections.singleton("not built"), index.getStartedBetween(Long.MIN_VALUE, started));
+        assertEquals(2, index.getStartedBetween(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertTrue(index.getStartedBetween(started + 1, Long.MAX_VALUE).isEmpty());
+
+        // a later build moves the job along the index
+        FreeStyleBuild rebuild = notBuilt.scheduleBuild2(0).get();
+        waitUntilNoActivity();
+        assertTrue(index.getStartedBetween(rebuild.getTimeInMillis(), Long.MAX_VALUE).contains("not built"));
+        assertTrue(index.getStartedBetween(Long.MIN_VALUE, started).isEmpty());
+    }
+
+    @Test
+    public void testDurationBetween() throws Exception {
+        FreeStyleProject project = createFreeStyleProject("project1");
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+        createFreeStyleProject("not built");
+        waitUntilNoActivity();
+
+        LastResultIndex index = LastResultIndex.get();
+        long duration = build.getDuration();
+        assertEquals(duration, index.getEntry(project).getDuration());
+        assertEquals(Collections.singleton("project1"), index.getDurationBetween(0, Long.MAX_VALUE));
+        assertEquals(Collections.singleton("project1"), index.getDurationBetween(duration, duration + 1));
+        assertTrue(index.getDurationBetween(duration + 1, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testNewJobsAreIndexed() throws Exception {
+        LastResultIndex index = LastResultIndex.get();
+        assertTrue(index.getStartedBetween(Long.MIN_VALUE, Long.MAX_VALUE).isEmpty());
+
+        createFreeStyleProject("project1");
+        assertEquals(Collections.singleton("project1"), index.getStartedBetween(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRenamedJob() throws Exception {
+        FreeStyleProject project = createFreeStyleProject("project1");
+        project.scheduleBuild2(0).get();
+        waitUntilNoActivity();
+
+        LastResultIndex index = LastResultIndex.get();
+        assertEquals(Result.SUCCESS, index.getLastResult(project));
+
+        project.renameTo("project2");
+        assertEquals(Result.SUCCESS, index.getLastResult(project));
+    }
+
+    /**
+     * Log rotation deletes old builds all the time, which must not send range
+     * queries back to walking every job or loading build records
+     */
+    @Test
+    public void testDeletedOldBuildKeepsIndexComplete() throws Exception {
+        FreeStyleProject project = createFreeStyleProject("project1");
+        FreeStyleBuild old = project.scheduleBuild2(0).get();
+        FreeStyleBuild last = project.scheduleBuild2(0).get();
+        createFreeStyleProject("not built");
+        waitUntilNoActivity();
+
+        LastResultIndex index = LastResultIndex.get();
+        index.getStartedBetween(Long.MIN_VALUE, Long.MAX_VALUE);
+        int walks = index.getWalks();
+        int loads = index.getLoads();
+
+        old.delete();
+        long started = last.getTimeInMillis();
+        assertEquals(Collections.singleton("project1"), index.getStartedBetween(started, started + 1));
+        assertEquals(walks, index.getWalks());
+        assertEquals(loads, index.getLoads());
+
+        // deleting the indexed build reloads that job alone
+        last.delete();
+        assertTrue(index.getStartedBetween(started, started + 1).isEmpty());
+        assertEquals(2, index.getStartedBetween(Long.MIN_VALUE, started).size());
+        assertEquals(walks, index.getWalks());
+        assertEquals(loads + 1, index.getLoads());
+    }
+
+    public void testIndexedDurationDoesNotLoad() throws Exception {
+        FreeStyleProject project = createFreeStyleProject("project1");
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+        FreeStyleProject notBuilt = createFreeStyleProject("not built");
+        waitUntilNoActivity();
+
+        LastResultIndex index = LastResultIndex.get();
+        index.getStartedBetween(Long.MIN_VALUE, Long.MAX_VALUE);
+        int loads = index.getLoads();
+
+        assertEquals(build.getDuration(), index.getIndexedDuration(project));
+        assertEquals(0, index.getIndexedDuration(notBuilt));
+        assertEquals(loads, index.getLoads());
+
+        // a job created since is not indexed until something loads it
+        FreeStyleProject created = createFreeStyleProject("created");
+        assertEquals(-1, index.getIndexedDuration(created));
+        assertEquals(loads, index.getLoads());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.BooleanParameterDefinition;
+import hudson.model.BooleanParameterValue;
+import hudson.model.ChoiceParameterDefinition;
+import hudson.model.FileParameterDefinition;
+import hudson.model.ParameterDefinition;
+import hudson.model.ParameterValue;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * @author simon
+ */
+public class ParameterPlanTest {
+
+    private static List<ParameterDefinition> definitions() {
+        List<ParameterDefinition> definitions = new ArrayList<ParameterDefinition>();
+        definitions.add(new StringParameterDefinition("BRANCH", "master", null));
+        definitions.add(new BooleanParameterDefinition("CLEAN", true, null));
+        definitions.add(new ChoiceParameterDefinition("ENV", new String[]{"dev", "qa"}, null));
+        return definitions;
+    }
+
+    @Test
+    public void testApplyDefaults() {
+        ParameterPlan plan = ParameterPlan.compile(definitions());
+        List<ParameterValue> values = plan.apply(Collections.<String, String>emptyMap());
+
+        assertEquals(3, values.size());
+        assertEquals(new StringParameterValue("BRANCH", "master"), values.get(0));
+        assertEquals(new BooleanParameterValue("CLEAN", true), values.get(1));
+        assertEquals(new StringParameterValue("ENV", "dev"), values.get(2));
+    }
+
+    @Test
+    public void testApplyUserValues() {
+        Map<String, String> userParams = new HashMap<String, String>();
+        userParams.put("BRANCH", "release");
+        userParams.put("CLEAN", "false");
+        userParams.put("ENV", "qa");
+
+        ParameterPlan plan = ParameterPlan.compile(definitions());
+        List<ParameterValue> values = plan.apply(userParams);
+
+        assertEquals(new StringParameterValue("BRANCH", "release"), values.get(0));
+        assertEquals(new BooleanParameterValue("CLEAN", false), values.get(1));
+        assertEquals(new StringParameterValue("ENV", "qa"), values.get(2));
+    }
+
+    @Test
+    public void testPlanIsReusable() {
+        ParameterPlan plan = ParameterPlan.compile(definitions());
+
+        assertEquals(new StringParameterValue("BRANCH", "a"),
+                plan.apply(Collections.singletonMap("BRANCH", "a")).get(0));
+        assertEquals(new StringParameterValue("BRANCH", "b"),
+                plan.apply(Collections.singletonMap("BRANCH", "b")).get(0));
+        assertEquals(3, plan.defaults().size());
+    }
+
+    @Test
+    public void testDefaultsAreComputedPerBuild() {
+        final int[] calls = new int[1];
+        List<ParameterDefinition> definitions = new ArrayList<ParameterDefinition>();
+        definitions.add(new StringParameterDefinition("STAMP", "", null) {
+            @Override
+            public StringParameterValue getDefaultParameterValue() {
+                return new StringParameterValue(getName(), String.valueOf(++calls[0]));
+            }
+        });
+
+        ParameterPlan plan = ParameterPlan.compile(definitions);
+        assertEquals(new StringParameterValue("STAMP", "1"), plan.defaults().get(0));
+        assertEquals(new StringParameterValue("STAMP", "2"),
+                plan.apply(Collections.<String, String>emptyMap()).get(0));
+    }
+
+    @Test
+    public void testParametersWithoutDefaultsAreLeftOut() {
+        List<ParameterDefinition> definitions = new ArrayList<ParameterDefinition>();
+        definitions.add(new ChoiceParameterDefinition("EMPTY", new String[0], null));
+        definitions.add(new FileParameterDefinition("UPLOAD", null));
+        definitions.add(new StringParameterDefinition("BRANCH", "master", null));
+
+        ParameterPlan plan = ParameterPlan.compile(definitions);
+        List<ParameterValue> values = plan.apply(Collections.singletonMap("UPLOAD", "ignored"));
+
+        assertEquals(1, values.size());
+        assertEquals(new StringParameterValue("BRANCH", "master"), values.get(0));
+        assertEquals(1, plan.defaults().size());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+import org.junit.Test;
+import org.jvnet.hudson.test.HudsonTestCase;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+
+/**
+ * @author simon
+ */
+public class QueueCounterTest extends HudsonTestCase {
+
+    @Test
+    public void testCountsByStateAndBulkShare() throws Exception {
+        QueueCounter counter = QueueCounter.get();
+        assertEquals(0, counter.getSize());
+
+        FreeStyleProject project1 = createFreeStyleProject("project1");
+        FreeStyleProject project2 = createFreeStyleProject("project2");
+        Queue queue = jenkins.getQueue();
+        queue.schedule2(project1, 100);
+        queue.schedule2(project2, 100, new BulkOperationAction("op"));
+
+        assertEquals(2, counter.getSize());
+        assertEquals(2, counter.getCount(QueueCounter.State.WAITING));
+        assertEquals(1, counter.getBulk());
+        assertEquals(0.5, counter.getBulkShare(), 0.001);
+
+        queue.cancel(project2);
+        assertEquals(1, counter.getSize());
+        assertEquals(0, counter.getBulk());
+
+        queue.clear();
+        assertEquals(0, counter.getSize());
+    }
+
+    @Test
+    public void testResyncMatchesQueue() throws Exception {
+        FreeStyleProject project = createFreeStyleProject("project1");
+        jenkins.getQueue().schedule2(project, 100);
+
+        final QueueCounter counter = QueueCounter.get();
+        Queue.withLock(new Runnable() {
+            public void run() {
+                counter.resync();
+            }
+        });
+        assertEquals(jenkins.getQueue().getItems().length, counter.getSize());
+    }
+
+    @Test
+    public void testResyncCountsItemsHiddenFromReader() throws Exception {
+        jenkins.setSecurityRealm(createDummySecurityRealm());
+        jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.READ).everywhere().toEveryone());
+
+        FreeStyleProject project = createFreeStyleProject("hidden");
+        jenkins.getQueue().schedule2(project, 100);
+
+        final QueueCounter counter = QueueCounter.get();
+        try (ACLContext ctx = ACL.as2(Jenkins.ANONYMOUS2)) {
+            Queue.withLock(new Runnable() {
+                public void run() {
+                    counter.resync();
+                }
+            });
+            assertEquals(0, jenkins.getQueue().getItems().length);
+        }
+        assertEquals(1, counter.getSize());
+    }
+}
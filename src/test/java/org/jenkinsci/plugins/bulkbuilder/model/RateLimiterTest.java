@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * @author simon
+ */
+public class RateLimiterTest {
+
+    private static class FakeTicker extends Ticker {
+        long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    @Test
+    public void testBurstIsImmediate() {
+        RateLimiter limiter = new RateLimiter(1, 3, ticker);
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.getAvailableTokens());
+    }
+
+    @Test
+    public void testWaitsOnceBucketIsEmpty() {
+        RateLimiter limiter = new RateLimiter(2, 1, ticker);
+        assertEquals(0, limiter.reserve());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), limiter.reserve());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), limiter.reserve());
+        assertEquals(1500, limiter.getWaitedMillis());
+        assertEquals(3, limiter.getAcquired());
+    }
+
+    @Test
+    public void testRefillsOverTime() {
+        RateLimiter limiter = new RateLimiter(10, 5, ticker);
+        for (int i = 0; i < 5; i++) {
+            limiter.reserve();
+        }
+        assertEquals(0, limiter.getAvailableTokens());
+
+        ticker.advance(300);
+        assertEquals(3, limiter.getAvailableTokens());
+
+        ticker.advance(10000);
+        assertEquals(5, limiter.getAvailableTokens());
+    }
+}
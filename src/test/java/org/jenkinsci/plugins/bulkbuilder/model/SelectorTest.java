@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2010-2011 Simon Westcott
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.bulkbuilder.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * @author simon
+ */
+public class SelectorTest {
+
+    @Test
+    public void testCheapTermsFirst() {
+        Selector selector = Selector.parse("status>=UNSTABLE and label=linux and name~'svc-*' and lastBuild>7d");
+        assertEquals("name~svc-* and label=linux and lastBuild>7d and status>=UNSTABLE", selector.toString());
+        assertEquals(Selector.Cost.HISTORY, selector.getCost());
+    }
+
+    @Test
+    public void testNestedJunctions() {
+        assertEquals("(name=a and label=b) or status=FAILURE",
+                Selector.parse("status=FAILURE or (name=a and label=b)").toString());
+        assertEquals("name=a and label=b and status=SUCCESS",
+                Selector.parse("name=a and (status=SUCCESS and label=b)").toString());
+        assertEquals("name=x and not status=FAILURE",
+                Selector.parse("not status=FAILURE and name=x").toString());
+        assertEquals(Selector.Cost.LABEL, Selector.parse("label!=any or name!~'*-legacy'").getCost());
+    }
+
+    @Test
+    public void testTimeRanges() {
+        assertEquals("lastBuild<today or status=FAILURE",
+                Selector.parse("status=FAILURE or lastBuild<today").toString());
+        assertEquals(Selector.Cost.INDEX, Selector.parse("duration>=30m and name~'svc-*'").getCost());
+        assertEquals("name~svc-* and duration>=30m", Selector.parse("duration>=30m and name~'svc-*'").toString());
+    }
+
+    @Test
+    public void testAndBindsTighterThanOr() {
+        assertEquals("name=a or (name=b and label=c)", Selector.parse("name=a or name=b and label=c").toString());
+    }
+
+    @Test
+    public void testQuotedValues() {
+        assertEquals("name='team a/svc'", Selector.parse("name = \"team a/svc\"").toString());
+        assertEquals("label='linux&&x64'", Selector.parse("label='linux&&x64'").toString());
+    }
+
+    @Test
+    public void testParseDuration() {
+        assertEquals(90000L, Selector.parseDuration("90"));
+        assertEquals(1800000L, Selector.parseDuration("30m"));
+        assertEquals(7L * 24 * 3600 * 1000, Selector.parseDuration("7d"));
+        assertEquals(14L * 24 * 3600 * 1000, Selector.parseDuration("2w"));
+    }
+
+    @Test
+    public void testInvalid() {
+        String[] queries = {
+            "",
+            "status>=GREEN",
+            "colour=red",
+            "name<x",
+            "lastBuild=7d",
+            "lastBuild>7y",
+            "lastBuild>yesterday",
+            "duration!=5m",
+            "name=",
+            "(name=a",
+            "name=a name=b",
+            "name='a",
+            "name ! a",
+            "and name=a"
+        };
+        for (String query : queries) {
+            try {
+                Selector.parse(query);
+                fail("Parsed invalid selector: " + query);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}